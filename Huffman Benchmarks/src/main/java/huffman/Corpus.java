@@ -0,0 +1,51 @@
+// This class generates the repeatable inputs the benchmarks run over
+
+package huffman;
+
+import java.util.*;
+
+public enum Corpus {
+    // every byte value equally likely, so Huffman coding cannot help
+    UNIFORM,
+    // byte values with geometrically falling frequencies, giving long codes
+    SKEWED,
+    // words, spaces and line feeds in the style of application logs
+    TEXT;
+
+    private static final String[] WORDS = {
+        "the", "request", "response", "user", "session", "error", "warning", "info",
+        "GET", "POST", "/api/v1/items", "200", "404", "500", "timeout", "cache",
+        "hit", "miss", "id=", "latency_ms=", "ok", "failed", "retrying", "connection"
+    };
+
+    // Parameters: number of bytes to generate
+    // Behavior: Returns size bytes of this kind of data. The same size always
+    // gives the same bytes.
+    public byte[] generate(int size) {
+        Random random = new Random(42 + ordinal());
+        byte[] data = new byte[size];
+        if (this == UNIFORM) {
+            random.nextBytes(data);
+        } else if (this == SKEWED) {
+            for (int i = 0; i < size; i++) {
+                int value = 0;
+                while (value < 255 && random.nextInt(3) == 0) {
+                    value++;
+                }
+                data[i] = (byte) value;
+            }
+        } else {
+            int i = 0;
+            while (i < size) {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                for (int j = 0; j < word.length() && i < size; j++) {
+                    data[i++] = (byte) word.charAt(j);
+                }
+                if (i < size) {
+                    data[i++] = (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+                }
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,185 @@
+// JMH benchmarks for each stage of the Huffman pipeline: frequency counting,
+// code construction, encoding and decoding, and the block codec end to end.
+//
+// Build with "mvn package" and run with "java -jar target/benchmarks.jar".
+// Add "-prof gc" for allocation rates and "-p size=4096,1048576" to pick
+// sizes. The megabytes counter gives throughput in MB/s, and every trial
+// prints the compression ratio of its corpus.
+
+package huffman;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx8g"})
+@State(Scope.Benchmark)
+public class HuffmanBenchmark {
+    @Param({"UNIFORM", "SKEWED", "TEXT"})
+    public Corpus corpus;
+
+    @Param({"4096", "1048576", "67108864", "1073741824"})
+    public int size;
+
+    private byte[] data;
+    private Path file;
+    private long[] frequencies;
+    private HuffmanCode code;
+    private HuffmanEncoder encoder;
+    private HuffmanDecoder decoder;
+    private byte[] bits;
+    private long bitLength;
+    private byte[] interleavedBits;
+    private long[] interleavedLengths;
+    private byte[] output;
+    private byte[] blocks;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = corpus.generate(size);
+        file = Files.createTempFile("huffman-benchmark", ".txt");
+        Files.write(file, data);
+
+        frequencies = new long[HuffmanCompressor.CHAR_MAX];
+        for (byte b : data) {
+            frequencies[b & 0xFF]++;
+        }
+        code = new HuffmanCode(frequencies, HuffmanCompressor.MAX_CODE_LENGTH);
+        encoder = code.encoder();
+        decoder = code.decoder();
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(size / 2);
+        BitWriter writer = new BitWriter(Channels.newChannel(encoded));
+        encoder.encode(data, 0, size, writer);
+        bitLength = writer.bitsWritten();
+        writer.finish();
+        bits = encoded.toByteArray();
+        output = new byte[size];
+
+        ByteArrayOutputStream[] streams = new ByteArrayOutputStream[HuffmanBlockCodec.STREAMS];
+        BitWriter[] writers = new BitWriter[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = new ByteArrayOutputStream(size / (2 * streams.length));
+            writers[i] = new BitWriter(Channels.newChannel(streams[i]));
+        }
+        encoder.encodeInterleaved(data, 0, size, writers);
+        interleavedLengths = new long[streams.length];
+        ByteArrayOutputStream interleaved = new ByteArrayOutputStream(size / 2);
+        for (int i = 0; i < streams.length; i++) {
+            interleavedLengths[i] = writers[i].bitsWritten();
+            writers[i].finish();
+            streams[i].writeTo(interleaved);
+        }
+        interleavedBits = interleaved.toByteArray();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(size / 2);
+        new HuffmanBlockCodec().compress(code, new ByteArrayInputStream(data), size, compressed);
+        blocks = compressed.toByteArray();
+
+        System.out.printf("%n%s, %d bytes: compression ratio %.4f (%d bits, max code length %d)%n",
+                corpus, size, (double) bits.length / size, bitLength, code.maxCodeLength());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    // Counts the megabytes each benchmark processes, so JMH reports MB/s
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+
+        public void add(long bytes) {
+            megabytes += bytes / 1e6;
+        }
+    }
+
+    @Benchmark
+    public long[] countFrequencies(Throughput throughput) throws IOException {
+        throughput.add(size);
+        return new FrequencyCounter().count(file.toString());
+    }
+
+    @Benchmark
+    public HuffmanCode buildCode() {
+        return new HuffmanCode(frequencies, HuffmanCompressor.MAX_CODE_LENGTH);
+    }
+
+    @Benchmark
+    public long encode(Throughput throughput) throws IOException {
+        BitWriter writer = new BitWriter(DiscardChannel.INSTANCE);
+        encoder.encode(data, 0, size, writer);
+        writer.finish();
+        throughput.add(size);
+        return writer.bitsWritten();
+    }
+
+    @Benchmark
+    public byte[] decode(Throughput throughput) throws IOException {
+        decoder.decode(bits, 0, bits.length, bitLength, output, 0, size);
+        throughput.add(size);
+        return output;
+    }
+
+    @Benchmark
+    public byte[] decodeInterleaved(Throughput throughput) throws IOException {
+        decoder.decodeInterleaved(interleavedBits, 0, interleavedLengths, output, 0, size);
+        throughput.add(size);
+        return output;
+    }
+
+    @Benchmark
+    public void blockCompress(Throughput throughput) throws IOException {
+        new HuffmanBlockCodec().compress(code, new ByteArrayInputStream(data), size,
+                new DiscardOutputStream());
+        throughput.add(size);
+    }
+
+    @Benchmark
+    public void blockDecompress(Throughput throughput) throws IOException {
+        new HuffmanBlockCodec().decompress(new ByteArrayInputStream(blocks), new DiscardOutputStream());
+        throughput.add(size);
+    }
+
+    // A channel that accepts and drops everything, so encoding is measured
+    // without the cost of keeping its output
+    private static class DiscardChannel implements WritableByteChannel {
+        static final DiscardChannel INSTANCE = new DiscardChannel();
+
+        public int write(ByteBuffer source) {
+            int count = source.remaining();
+            source.position(source.limit());
+            return count;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    private static class DiscardOutputStream extends OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
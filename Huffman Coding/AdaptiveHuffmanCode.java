@@ -0,0 +1,194 @@
+// This class is an adaptive (FGK) Huffman code: the encoder and decoder
+// start from the same empty tree and update it after every symbol, so data
+// can be compressed in one pass without knowing its frequencies up front
+
+import java.io.*;
+import java.util.*;
+
+public class AdaptiveHuffmanCode {
+    public static final int EOF = HuffmanCompressor.CHAR_MAX;        // marks the end of the data
+    public static final int FLUSH = HuffmanCompressor.CHAR_MAX + 1;  // marks padding to a byte boundary
+    public static final int SYMBOLS = HuffmanCompressor.CHAR_MAX + 2;
+
+    // bits used to send a symbol the first time it is seen
+    private static final int LITERAL_BITS = 9;
+
+    private static final int NODES = 2 * SYMBOLS - 1;
+    private static final int ROOT = NODES - 1;
+    private static final int NONE = -1;
+    private static final int NYT_SYMBOL = -2;
+
+    // Nodes are numbered so that weights never decrease with the index (the
+    // sibling property). The root is the highest node and the NYT ("not yet
+    // transmitted") leaf, which stands for every unseen symbol, the lowest.
+    private long[] weight;
+    private int[] parent;
+    private int[] left;
+    private int[] right;
+    private int[] symbol;    // symbol of a leaf, or NYT_SYMBOL
+    private int[] leafOf;    // node of each symbol, NONE if not seen yet
+    private int nyt;         // NONE once every symbol has been seen
+    private int[] path;      // scratch space for encoding a leaf-to-root path
+
+    // Behavior: Creates a code whose tree is a single NYT leaf
+    public AdaptiveHuffmanCode() {
+        weight = new long[NODES];
+        parent = new int[NODES];
+        left = new int[NODES];
+        right = new int[NODES];
+        symbol = new int[NODES];
+        leafOf = new int[SYMBOLS];
+        path = new int[NODES];
+        Arrays.fill(leafOf, NONE);
+        nyt = ROOT;
+        parent[ROOT] = NONE;
+        left[ROOT] = NONE;
+        right[ROOT] = NONE;
+        symbol[ROOT] = NYT_SYMBOL;
+    }
+
+    // Parameters: symbol (a byte value, EOF or FLUSH) and the writer to send it to
+    // Behavior: Writes the current code of the symbol, or the NYT code followed
+    // by the symbol itself if it has not been seen, then updates the tree
+    public void encode(int symbol, BitWriter output) throws IOException {
+        if (symbol < 0 || symbol >= SYMBOLS) {
+            throw new IllegalArgumentException("Illegal symbol: " + symbol);
+        }
+        int node = leafOf[symbol] == NONE ? nyt : leafOf[symbol];
+        int depth = 0;
+        while (node != ROOT) {
+            path[depth++] = right[parent[node]] == node ? 1 : 0;
+            node = parent[node];
+        }
+        // Bits were collected leaf first, so send them back in root-first order
+        long bits = 0;
+        int size = 0;
+        for (int i = depth - 1; i >= 0; i--) {
+            bits |= (long) path[i] << size;
+            size++;
+            if (size == 56) {
+                output.write(bits, size);
+                bits = 0;
+                size = 0;
+            }
+        }
+        output.write(bits, size);
+        if (leafOf[symbol] == NONE) {
+            output.write(symbol, LITERAL_BITS);
+        }
+        update(symbol);
+    }
+
+    // Parameters: reader positioned at the start of a symbol
+    // Behavior: Reads and returns the next symbol and updates the tree the
+    // same way the encoder did. Returns -1 if the input ends before a symbol.
+    public int decode(BitReader input) throws IOException {
+        int node = ROOT;
+        while (left[node] != NONE) {
+            int bit = input.readBit();
+            if (bit == -1) {
+                throw new EOFException("Adaptive Huffman stream ended inside a code");
+            }
+            node = bit == 0 ? left[node] : right[node];
+        }
+        int result;
+        if (node == nyt) {
+            if (node == ROOT) {
+                // Nothing has been sent yet, so a clean end of input is allowed here
+                int first = input.readBit();
+                if (first == -1) {
+                    return -1;
+                }
+                result = first | (int) input.readBits(LITERAL_BITS - 1) << 1;
+            } else {
+                result = (int) input.readBits(LITERAL_BITS);
+            }
+            if (result >= SYMBOLS) {
+                throw new IOException("Invalid symbol in adaptive Huffman stream: " + result);
+            }
+        } else {
+            result = symbol[node];
+        }
+        update(result);
+        return result;
+    }
+
+    // Parameters: symbol that was just coded
+    // Behavior: Adds the symbol to the tree if it is new, then increments the
+    // weights on its path to the root. Before each increment the node is
+    // swapped with the highest-numbered node of the same weight, which keeps
+    // the sibling property and so keeps the tree a Huffman tree.
+    private void update(int value) {
+        int node;
+        if (leafOf[value] == NONE && nyt == 0) {
+            // The last unseen symbol takes over the NYT leaf itself
+            symbol[nyt] = value;
+            leafOf[value] = nyt;
+            node = nyt;
+            nyt = NONE;
+        } else if (leafOf[value] == NONE) {
+            // Split the NYT leaf into a new NYT leaf and a leaf for the symbol
+            int old = nyt;
+            int leaf = old - 1;
+            nyt = old - 2;
+            left[old] = nyt;
+            right[old] = leaf;
+            symbol[old] = NONE;
+            makeLeaf(leaf, old, value);
+            makeLeaf(nyt, old, NYT_SYMBOL);
+            leafOf[value] = leaf;
+            node = leaf;
+        } else {
+            node = leafOf[value];
+        }
+        while (node != NONE) {
+            int leader = node;
+            while (leader < ROOT && weight[leader + 1] == weight[node]) {
+                leader++;
+            }
+            if (leader != node && leader != parent[node]) {
+                swap(node, leader);
+                node = leader;
+            }
+            weight[node]++;
+            node = parent[node];
+        }
+    }
+
+    // Behavior: Makes the given node a leaf of weight 0 under the given parent
+    private void makeLeaf(int node, int parentNode, int value) {
+        weight[node] = 0;
+        parent[node] = parentNode;
+        left[node] = NONE;
+        right[node] = NONE;
+        symbol[node] = value;
+    }
+
+    // Behavior: Exchanges the subtrees numbered a and b. The numbers keep
+    // their place under their parents; only what hangs below them moves.
+    private void swap(int a, int b) {
+        int leftA = left[a];
+        int rightA = right[a];
+        int symbolA = symbol[a];
+        left[a] = left[b];
+        right[a] = right[b];
+        symbol[a] = symbol[b];
+        left[b] = leftA;
+        right[b] = rightA;
+        symbol[b] = symbolA;
+        attach(a);
+        attach(b);
+    }
+
+    // Behavior: Points the children or the symbol of the given node back at it
+    private void attach(int node) {
+        if (left[node] != NONE) {
+            parent[left[node]] = node;
+            parent[right[node]] = node;
+        } else if (symbol[node] == NYT_SYMBOL) {
+            nyt = node;
+        } else {
+            leafOf[symbol[node]] = node;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+// This class decompresses a stream written by AdaptiveHuffmanOutputStream
+// as the compressed bits arrive
+
+import java.io.*;
+
+public class AdaptiveHuffmanInputStream extends InputStream {
+    private BitReader input;
+    private AdaptiveHuffmanCode code;
+    private boolean atEnd;
+
+    // post: constructs an AdaptiveHuffmanInputStream reading compressed bits from input
+    public AdaptiveHuffmanInputStream(InputStream input) {
+        this.input = new BitReader(input);
+        this.code = new AdaptiveHuffmanCode();
+    }
+
+    // post: returns the next byte, or -1 at the end of the data
+    public int read() throws IOException {
+        while (!atEnd) {
+            int symbol = nextSymbol();
+            if (symbol < HuffmanCompressor.CHAR_MAX) {
+                return symbol;
+            }
+        }
+        return -1;
+    }
+
+    // post: reads up to len bytes into the array starting at off and returns
+    //       how many were read, or -1 at the end of the data. Returns early at
+    //       a flush point instead of blocking for data not yet sent.
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        while (n < len && !atEnd) {
+            int symbol = nextSymbol();
+            if (symbol < HuffmanCompressor.CHAR_MAX) {
+                b[off + n] = (byte) symbol;
+                n++;
+            } else if (symbol == AdaptiveHuffmanCode.FLUSH && n > 0) {
+                return n;
+            }
+        }
+        return n == 0 && atEnd ? -1 : n;
+    }
+
+    // post: decodes the next symbol, handling the FLUSH and EOF markers
+    private int nextSymbol() throws IOException {
+        int symbol = code.decode(input);
+        if (symbol == -1 || symbol == AdaptiveHuffmanCode.EOF) {
+            atEnd = true;
+        } else if (symbol == AdaptiveHuffmanCode.FLUSH) {
+            input.alignToByte();
+        }
+        return symbol;
+    }
+
+    // post: input is closed
+    public void close() throws IOException {
+        input.close();
+    }
+}
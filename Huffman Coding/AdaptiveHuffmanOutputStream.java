@@ -0,0 +1,65 @@
+// This class compresses everything written to it with an adaptive Huffman
+// code in a single pass, so it can sit on top of pipes and sockets
+
+import java.io.*;
+import java.nio.channels.*;
+
+public class AdaptiveHuffmanOutputStream extends OutputStream {
+    private OutputStream output;
+    private BitWriter writer;
+    private AdaptiveHuffmanCode code;
+    private boolean written;  // whether anything was written since the last flush
+    private boolean closed;
+
+    // post: constructs an AdaptiveHuffmanOutputStream sending compressed bits to output
+    public AdaptiveHuffmanOutputStream(OutputStream output) {
+        this.output = output;
+        this.writer = new BitWriter(Channels.newChannel(output), 1 << 12);
+        this.code = new AdaptiveHuffmanCode();
+    }
+
+    // post: compresses the given byte
+    public void write(int b) throws IOException {
+        ensureOpen();
+        code.encode(b & 0xFF, writer);
+        written = true;
+    }
+
+    // post: compresses len bytes of the array starting at off
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        for (int i = off; i < off + len; i++) {
+            code.encode(b[i] & 0xFF, writer);
+        }
+        written |= len > 0;
+    }
+
+    // post: sends everything written so far, so the reader can decode it
+    //       without waiting for more. Costs a FLUSH symbol and up to 7
+    //       padding bits, so it is skipped if nothing new was written.
+    public void flush() throws IOException {
+        ensureOpen();
+        if (written) {
+            code.encode(AdaptiveHuffmanCode.FLUSH, writer);
+            writer.finish();
+            written = false;
+        }
+        output.flush();
+    }
+
+    // post: writes the end marker and closes the underlying stream
+    public void close() throws IOException {
+        if (!closed) {
+            code.encode(AdaptiveHuffmanCode.EOF, writer);
+            writer.finish();
+            closed = true;
+            output.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,80 @@
+// This class reads bits one at a time or in small groups from a stream,
+// lowest bit of each byte first, matching the layout written by BitWriter
+
+import java.io.*;
+
+public class BitReader {
+    private static final int BUFFER_SIZE = 1 << 12;
+
+    private InputStream input;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private long bits;   // buffered bits, next bit in the lowest position
+    private int count;   // how many bits are currently buffered
+
+    // post: constructs a BitReader reading from the given stream
+    public BitReader(InputStream input) {
+        this.input = input;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    // post: returns the next bit (0 or 1), or -1 if there are no more bits.
+    //       Only blocks on the underlying stream when no bits are buffered.
+    public int readBit() throws IOException {
+        if (count == 0 && !nextByte()) {
+            return -1;
+        }
+        int bit = (int) bits & 1;
+        bits >>>= 1;
+        count--;
+        return bit;
+    }
+
+    // pre : 0 <= n <= 56
+    // post: returns the next n bits, first bit lowest, or throws an
+    //       EOFException if the stream ends before n bits are read
+    public long readBits(int n) throws IOException {
+        while (count < n) {
+            if (!nextByte()) {
+                throw new EOFException("Stream ended inside a " + n + "-bit field");
+            }
+        }
+        long result = bits & ((1L << n) - 1);
+        bits >>>= n;
+        count -= n;
+        return result;
+    }
+
+    // post: skips the rest of the current byte, if part of it has been read
+    public void alignToByte() {
+        int drop = count % 8;
+        bits >>>= drop;
+        count -= drop;
+    }
+
+    // post: input is closed
+    public void close() throws IOException {
+        input.close();
+    }
+
+    // post: appends the next byte of input to the bit buffer, returning false
+    //       at the end of input. Reads whatever the stream has available
+    //       rather than waiting for a full buffer.
+    private boolean nextByte() throws IOException {
+        if (position == limit) {
+            int n = input.read(buffer, 0, buffer.length);
+            while (n == 0) {
+                n = input.read(buffer, 0, buffer.length);
+            }
+            if (n == -1) {
+                return false;
+            }
+            position = 0;
+            limit = n;
+        }
+        bits |= (buffer[position++] & 0xFFL) << count;
+        count += 8;
+        return true;
+    }
+}
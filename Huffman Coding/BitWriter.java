@@ -0,0 +1,87 @@
+// This class packs variable-length codes into 64-bit words and writes
+// them through a fixed-size buffer to a channel, so memory use does not
+// depend on how much data is written
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class BitWriter {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private WritableByteChannel channel;
+    private ByteBuffer buffer;
+    private long bits;         // pending bits, first bit in the lowest position
+    private int count;         // how many bits are pending (always less than 64)
+    private long bitsWritten;  // total number of bits written so far
+
+    // post: constructs a BitWriter sending output to the given channel
+    public BitWriter(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    // pre : bufferSize is a positive multiple of 8
+    // post: constructs a BitWriter with a buffer of the given size in bytes
+    public BitWriter(WritableByteChannel channel, int bufferSize) {
+        if (bufferSize <= 0 || bufferSize % 8 != 0) {
+            throw new IllegalArgumentException("Illegal buffer size: " + bufferSize);
+        }
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // pre : 0 <= length <= 64 and code has no bits set at or above length
+    // post: appends the lowest length bits of code, lowest bit first
+    public void write(long code, int length) throws IOException {
+        bits |= code << count;
+        int total = count + length;
+        if (total >= 64) {
+            putLong(bits);
+            bits = count == 0 ? 0 : code >>> (64 - count);
+            total -= 64;
+        }
+        count = total;
+        bitsWritten += length;
+    }
+
+    // post: returns the total number of bits written so far
+    public long bitsWritten() {
+        return bitsWritten;
+    }
+
+    // post: writes any pending bits padded with 0's to a whole byte and
+    //       flushes the buffer to the channel. Returns how many padding
+    //       bits were added (0 to 7). The channel is left open.
+    public int finish() throws IOException {
+        int padding = (8 - count % 8) % 8;
+        int bytes = (count + 7) / 8;
+        if (buffer.remaining() < bytes) {
+            flushBuffer();
+        }
+        for (int i = 0; i < bytes; i++) {
+            buffer.put((byte) (bits >>> (8 * i)));
+        }
+        bits = 0;
+        count = 0;
+        bitsWritten += padding;
+        flushBuffer();
+        return padding;
+    }
+
+    // post: adds one full word to the buffer, flushing it first if it is full
+    private void putLong(long word) throws IOException {
+        if (buffer.remaining() < 8) {
+            flushBuffer();
+        }
+        buffer.putLong(word);
+    }
+
+    // post: writes the contents of the buffer to the channel and empties it
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,288 @@
+// This class is an order-1 Huffman code: the code used for each byte
+// depends on the byte before it. Previous byte values with similar
+// statistics share a code, so only a few tables are stored.
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+public class ContextHuffmanCode {
+    public static final int MAGIC = 0x48554643;  // "HUFC"
+    public static final int DEFAULT_MAX_CODES = 16;
+
+    private static final int CLUSTER_ROUNDS = 8;
+
+    private int[] codeOf;        // which code is used after each previous byte value
+    private HuffmanCode[] codes;
+
+    // Parameters: frequencies[previous][current] of byte pairs
+    // Behavior: Creates a code with at most DEFAULT_MAX_CODES tables
+    public ContextHuffmanCode(long[][] frequencies) {
+        this(frequencies, DEFAULT_MAX_CODES);
+    }
+
+    // Parameters: frequencies[previous][current] of byte pairs and the most
+    // tables to build
+    // Behavior: Groups the previous byte values into at most maxCodes clusters
+    // with similar statistics (k-means with the coded size as the distance),
+    // and builds one length-limited code per cluster. Falls back to a single
+    // table when the extra tables would cost more than they save.
+    public ContextHuffmanCode(long[][] frequencies, int maxCodes) {
+        if (maxCodes < 1 || maxCodes > HuffmanCompressor.CHAR_MAX) {
+            throw new IllegalArgumentException("Illegal number of codes: " + maxCodes);
+        }
+        int[] clusters = cluster(frequencies, maxCodes);
+        build(frequencies, clusters);
+        if (codes.length > 1) {
+            long clustered = compressedBits(frequencies) + 8 * headerSize();
+            int[] single = new int[HuffmanCompressor.CHAR_MAX];
+            int[] keepCodeOf = codeOf;
+            HuffmanCode[] keepCodes = codes;
+            build(frequencies, single);
+            if (compressedBits(frequencies) + 8 * headerSize() > clustered) {
+                codeOf = keepCodeOf;
+                codes = keepCodes;
+            }
+        }
+    }
+
+    // Parameters: InputStream input positioned at a header written by writeHeader
+    // Behavior: Builds the code from the header, reading exactly its bytes
+    public ContextHuffmanCode(InputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        int count = data.readUnsignedByte() + 1;
+        codeOf = new int[HuffmanCompressor.CHAR_MAX];
+        for (int i = 0; i < codeOf.length && count > 1; i++) {
+            codeOf[i] = data.readUnsignedByte();
+            if (codeOf[i] >= count) {
+                throw new IOException("Invalid context header");
+            }
+        }
+        codes = new HuffmanCode[count];
+        for (int i = 0; i < count; i++) {
+            codes[i] = new HuffmanCode(data);
+        }
+    }
+
+    // Behavior: Returns how many tables this code uses
+    public int codeCount() {
+        return codes.length;
+    }
+
+    // Parameters: frequencies[previous][current] of byte pairs
+    // Behavior: Returns how many bits this code takes to encode data with the
+    // given pair frequencies, or -1 if some pair has no code
+    public long compressedBits(long[][] frequencies) {
+        long[][] merged = new long[codes.length][HuffmanCompressor.CHAR_MAX];
+        for (int previous = 0; previous < frequencies.length; previous++) {
+            for (int i = 0; i < HuffmanCompressor.CHAR_MAX; i++) {
+                merged[codeOf[previous]][i] += frequencies[previous][i];
+            }
+        }
+        long bits = 0;
+        for (int i = 0; i < codes.length; i++) {
+            long codeBits = codes[i].compressedBits(merged[i]);
+            if (codeBits == -1) {
+                return -1;
+            }
+            bits += codeBits;
+        }
+        return bits;
+    }
+
+    // Parameters: OutputStream output to write the header to
+    // Behavior: Writes the number of tables, the table used after each byte
+    // value (left out when there is only one table) and then each table as a
+    // HuffmanCode header
+    public void writeHeader(OutputStream output) throws IOException {
+        output.write(codes.length - 1);
+        for (int i = 0; i < codeOf.length && codes.length > 1; i++) {
+            output.write(codeOf[i]);
+        }
+        for (HuffmanCode code : codes) {
+            code.writeHeader(output);
+        }
+    }
+
+    // Parameters: input to read, how many bytes of it to encode and output
+    // Behavior: Writes a complete stream (magic number, length, header and
+    // bits) that decode can read back. Throws an IllegalArgumentException
+    // if a byte pair has no code.
+    public void encode(InputStream input, long length, OutputStream output) throws IOException {
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeLong(length);
+        writeHeader(data);
+        data.flush();
+        HuffmanEncoder[] byContext = new HuffmanEncoder[HuffmanCompressor.CHAR_MAX];
+        for (int i = 0; i < byContext.length; i++) {
+            byContext[i] = codes[codeOf[i]].encoder();
+        }
+        BitWriter writer = new BitWriter(Channels.newChannel(output));
+        byte[] buffer = new byte[BitWriter.DEFAULT_BUFFER_SIZE];
+        int previous = 0;
+        long remaining = length;
+        while (remaining > 0) {
+            int count = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (count == -1) {
+                throw new EOFException("Input ended " + remaining + " bytes early");
+            }
+            for (int i = 0; i < count; i++) {
+                int symbol = buffer[i] & 0xFF;
+                HuffmanEncoder encoder = byContext[previous];
+                if (!encoder.hasCode(symbol)) {
+                    throw new IllegalArgumentException("Missing code for " + symbol + " after " + previous);
+                }
+                writer.write(encoder.code(symbol), encoder.length(symbol));
+                previous = symbol;
+            }
+            remaining -= count;
+        }
+        writer.finish();
+        output.flush();
+    }
+
+    // Parameters: input holding a stream written by encode and output to
+    // write the original bytes to
+    // Behavior: Reads the header and decodes the bits, switching between
+    // the prebuilt decode tables for every byte
+    public static void decode(InputStream input, OutputStream output) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a context Huffman stream");
+        }
+        long length = data.readLong();
+        ContextHuffmanCode code = new ContextHuffmanCode(data);
+        HuffmanDecoder[] decoders = new HuffmanDecoder[code.codes.length];
+        for (int i = 0; i < decoders.length; i++) {
+            decoders[i] = code.codes[i].decoder();
+        }
+        HuffmanDecoder[] byContext = new HuffmanDecoder[HuffmanCompressor.CHAR_MAX];
+        for (int i = 0; i < byContext.length; i++) {
+            byContext[i] = decoders[code.codeOf[i]];
+        }
+        HuffmanDecoder.decode(byContext, input, output, length);
+    }
+
+    // Behavior: Returns the size in bytes of this code's header
+    private int headerSize() {
+        int size = codes.length > 1 ? 1 + HuffmanCompressor.CHAR_MAX : 1;
+        for (HuffmanCode code : codes) {
+            size += HuffmanCode.HEADER_BITMAP_BYTES;
+            for (int length : code.codeLengths()) {
+                if (length > 0) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    // Parameters: pair frequencies and the cluster of each previous byte value
+    // Behavior: Builds one code from the merged frequencies of each non-empty
+    // cluster and renumbers the clusters to leave no gaps
+    private void build(long[][] frequencies, int[] clusters) {
+        long[][] merged = new long[HuffmanCompressor.CHAR_MAX][HuffmanCompressor.CHAR_MAX];
+        for (int previous = 0; previous < clusters.length; previous++) {
+            for (int i = 0; i < HuffmanCompressor.CHAR_MAX; i++) {
+                merged[clusters[previous]][i] += frequencies[previous][i];
+            }
+        }
+        int[] renumber = new int[HuffmanCompressor.CHAR_MAX];
+        List<HuffmanCode> built = new ArrayList<HuffmanCode>();
+        for (int cluster = 0; cluster < merged.length; cluster++) {
+            if (total(merged[cluster]) > 0) {
+                renumber[cluster] = built.size();
+                built.add(new HuffmanCode(merged[cluster], HuffmanCompressor.MAX_CODE_LENGTH));
+            }
+        }
+        if (built.isEmpty()) {
+            throw new IllegalArgumentException("No frequencies given");
+        }
+        codeOf = new int[HuffmanCompressor.CHAR_MAX];
+        for (int previous = 0; previous < clusters.length; previous++) {
+            codeOf[previous] = total(merged[clusters[previous]]) > 0 ? renumber[clusters[previous]] : 0;
+        }
+        codes = built.toArray(new HuffmanCode[built.size()]);
+    }
+
+    // Parameters: pair frequencies and the most clusters to form
+    // Behavior: Returns a cluster number for each previous byte value. The
+    // busiest contexts seed the clusters; every context then joins the cluster
+    // whose (smoothed) statistics code it in the fewest bits, and the cluster
+    // statistics are recomputed, for a few rounds or until nothing moves.
+    private static int[] cluster(long[][] frequencies, int maxClusters) {
+        Integer[] busiest = new Integer[HuffmanCompressor.CHAR_MAX];
+        for (int i = 0; i < busiest.length; i++) {
+            busiest[i] = i;
+        }
+        Arrays.sort(busiest, (a, b) -> Long.compare(total(frequencies[b]), total(frequencies[a])));
+        int[] clusters = new int[HuffmanCompressor.CHAR_MAX];
+        Arrays.fill(clusters, -1);
+        int seeds = 0;
+        while (seeds < maxClusters && total(frequencies[busiest[seeds]]) > 0) {
+            clusters[busiest[seeds]] = seeds;
+            seeds++;
+        }
+        if (seeds <= 1) {
+            return new int[HuffmanCompressor.CHAR_MAX];
+        }
+        boolean moved = true;
+        for (int round = 0; round < CLUSTER_ROUNDS && moved; round++) {
+            double[][] cost = bitCosts(frequencies, clusters, seeds);
+            moved = false;
+            for (int previous = 0; previous < clusters.length; previous++) {
+                int best = clusters[previous] == -1 ? 0 : clusters[previous];
+                double bestBits = Double.MAX_VALUE;
+                for (int cluster = 0; cluster < seeds; cluster++) {
+                    double bits = 0;
+                    for (int i = 0; i < HuffmanCompressor.CHAR_MAX; i++) {
+                        bits += frequencies[previous][i] * cost[cluster][i];
+                    }
+                    if (bits < bestBits) {
+                        bestBits = bits;
+                        best = cluster;
+                    }
+                }
+                if (best != clusters[previous]) {
+                    clusters[previous] = best;
+                    moved = true;
+                }
+            }
+        }
+        return clusters;
+    }
+
+    // Parameters: pair frequencies, current clusters (-1 for none) and how many
+    // Behavior: Returns the estimated bits per symbol -log2(p) in each cluster,
+    // with add-half smoothing so that unseen symbols get a finite cost
+    private static double[][] bitCosts(long[][] frequencies, int[] clusters, int count) {
+        double[][] cost = new double[count][HuffmanCompressor.CHAR_MAX];
+        for (int previous = 0; previous < clusters.length; previous++) {
+            if (clusters[previous] != -1) {
+                for (int i = 0; i < HuffmanCompressor.CHAR_MAX; i++) {
+                    cost[clusters[previous]][i] += frequencies[previous][i];
+                }
+            }
+        }
+        for (double[] counts : cost) {
+            double sum = 0;
+            for (double c : counts) {
+                sum += c + 0.5;
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = -Math.log((counts[i] + 0.5) / sum) / Math.log(2);
+            }
+        }
+        return cost;
+    }
+
+    // Behavior: Returns the sum of the given frequencies
+    private static long total(long[] frequencies) {
+        long sum = 0;
+        for (long frequency : frequencies) {
+            sum += frequency;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,174 @@
+// This class counts how often each byte value occurs in a file by memory
+// mapping slices of it and counting the slices concurrently
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class FrequencyCounter {
+    public static final int DEFAULT_SLICE_SIZE = 1 << 26;
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private ForkJoinPool pool;
+    private int sliceSize;
+
+    // Behavior: Creates a counter with the default slice size on the common pool
+    public FrequencyCounter() {
+        this(DEFAULT_SLICE_SIZE, ForkJoinPool.commonPool());
+    }
+
+    // Parameters: number of bytes each worker maps and counts at a time and
+    // the pool to run on
+    public FrequencyCounter(int sliceSize, ForkJoinPool pool) {
+        if (sliceSize <= 0) {
+            throw new IllegalArgumentException("Illegal slice size: " + sliceSize);
+        }
+        this.sliceSize = sliceSize;
+        this.pool = pool;
+    }
+
+    // Parameters: name of the file to count
+    // Behavior: Returns how many times each byte value occurs in the file,
+    // ignoring a terminating line feed (0x0a as the last byte)
+    public long[] count(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            long[] frequencies = countSlices(channel, FrequencyCounter::countSlice);
+            long size = channel.size();
+            if (size > 0) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, size - 1);
+                if (last.get(0) == 0x0a) {
+                    frequencies[0x0a]--;
+                }
+            }
+            return frequencies;
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Parameters: name of the file to count
+    // Behavior: Returns how many times each byte value follows each other byte
+    // value, as frequencies[previous][current]. The first byte counts as
+    // following a 0. Every byte is counted, including a terminating line feed,
+    // and summing over previous gives the plain frequencies of the file.
+    public long[][] countContexts(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            long[] counts = countSlices(channel, FrequencyCounter::countContextSlice);
+            long[][] frequencies = new long[HuffmanCompressor.CHAR_MAX][HuffmanCompressor.CHAR_MAX];
+            for (int i = 0; i < counts.length; i++) {
+                frequencies[i / HuffmanCompressor.CHAR_MAX][i % HuffmanCompressor.CHAR_MAX] = counts[i];
+            }
+            return frequencies;
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Parameters: channel of the file and how to count one slice of it
+    // Behavior: Counts every slice of the file on the pool and returns the
+    // sum of the per-slice histograms
+    private long[] countSlices(FileChannel channel, SliceCounter counter) throws IOException {
+        long size = channel.size();
+        List<Callable<long[]>> slices = new ArrayList<Callable<long[]>>();
+        for (long start = 0; start < size; start += sliceSize) {
+            long position = start;
+            long length = Math.min(sliceSize, size - start);
+            slices.add(() -> counter.count(channel, position, length));
+        }
+        try {
+            long[] total = null;
+            for (Future<long[]> slice : pool.invokeAll(slices)) {
+                long[] counts = slice.get();
+                if (total == null) {
+                    total = counts;
+                } else {
+                    for (int i = 0; i < total.length; i++) {
+                        total[i] += counts[i];
+                    }
+                }
+            }
+            return total != null ? total : counter.count(channel, 0, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Counts the bytes of one slice of a file into a histogram
+    private interface SliceCounter {
+        long[] count(FileChannel channel, long position, long length) throws IOException;
+    }
+
+    // Parameters: channel of the file, where the slice starts and its length
+    // Behavior: Maps the slice and counts its byte pairs into a flattened
+    // [previous * 256 + current] histogram, starting from the byte before
+    // the slice so that pairs across slice boundaries are counted once
+    private static long[] countContextSlice(FileChannel channel, long position, long length) throws IOException {
+        int previous = 0;
+        if (position > 0) {
+            ByteBuffer before = ByteBuffer.allocate(1);
+            channel.read(before, position - 1);
+            previous = before.get(0) & 0xFF;
+        }
+        MappedByteBuffer slice = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int[] counts = new int[HuffmanCompressor.CHAR_MAX * HuffmanCompressor.CHAR_MAX];
+        byte[] chunk = new byte[CHUNK_SIZE];
+        while (slice.hasRemaining()) {
+            int size = Math.min(chunk.length, slice.remaining());
+            slice.get(chunk, 0, size);
+            for (int i = 0; i < size; i++) {
+                int current = chunk[i] & 0xFF;
+                counts[previous << 8 | current]++;
+                previous = current;
+            }
+        }
+        long[] result = new long[counts.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts[i];
+        }
+        return result;
+    }
+
+    // Parameters: channel of the file, where the slice starts and its length
+    // Behavior: Maps the slice and counts it into four interleaved histograms
+    // so that runs of the same byte do not stall on a single counter
+    private static long[] countSlice(FileChannel channel, long position, long length) throws IOException {
+        MappedByteBuffer slice = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int[] counts0 = new int[HuffmanCompressor.CHAR_MAX];
+        int[] counts1 = new int[HuffmanCompressor.CHAR_MAX];
+        int[] counts2 = new int[HuffmanCompressor.CHAR_MAX];
+        int[] counts3 = new int[HuffmanCompressor.CHAR_MAX];
+        byte[] chunk = new byte[CHUNK_SIZE];
+        while (slice.hasRemaining()) {
+            int size = Math.min(chunk.length, slice.remaining());
+            slice.get(chunk, 0, size);
+            int i = 0;
+            for (; i + 3 < size; i += 4) {
+                counts0[chunk[i] & 0xFF]++;
+                counts1[chunk[i + 1] & 0xFF]++;
+                counts2[chunk[i + 2] & 0xFF]++;
+                counts3[chunk[i + 3] & 0xFF]++;
+            }
+            for (; i < size; i++) {
+                counts0[chunk[i] & 0xFF]++;
+            }
+        }
+        long[] result = new long[HuffmanCompressor.CHAR_MAX];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (long) counts0[i] + counts1[i] + counts2[i] + counts3[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,395 @@
+// This class compresses many small files at once. Files are compressed
+// concurrently, and files whose byte statistics look alike share one code
+// table: tables are kept in a bounded least-recently-used cache keyed by a
+// rough signature of the frequencies, and each batch stores the tables its
+// files use once in a table file instead of in the header of every file.
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class HuffmanBatchCompressor {
+    public static final int MAGIC = 0x48554654;  // "HUFT"
+    public static final int DEFAULT_CACHE_SIZE = 64;
+    public static final String TABLE_FILENAME = "codes.tables";
+    public static final String SUFFIX = ".short";
+
+    private static final int NO_TABLE = -1;      // table id of an empty file
+
+    // Weight of a real occurrence against the single count every byte value
+    // gets when a table is built
+    private static final int SMOOTHING = 1 << 10;
+
+    // Signatures round code lengths to multiples of this many bits and treat
+    // everything rarer than RARE_LEVEL as rare
+    private static final int LEVEL_WIDTH = 2;
+    private static final int RARE_LEVEL = 12;
+
+    // A cached table is only used for a file if it takes at most 1/SLACK
+    // more bits than the file's own code could; otherwise it counts as a miss
+    private static final int SLACK = 16;
+
+    // Most bits per symbol by which a Huffman code can exceed the entropy,
+    // on top of the probability of the most common value (Gallager's bound)
+    private static final double HUFFMAN_REDUNDANCY = 0.086;
+
+    private Map<Signature, Table> cache;         // in LRU order; evicted tables are dropped
+    private long hits;
+    private long misses;
+
+    // Behavior: Creates a batch compressor caching DEFAULT_CACHE_SIZE tables
+    public HuffmanBatchCompressor() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    // Parameters: how many tables the cache holds before evicting the least
+    // recently used one
+    public HuffmanBatchCompressor(int cacheSize) {
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("Illegal cache size: " + cacheSize);
+        }
+        this.cache = new LinkedHashMap<Signature, Table>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Signature, Table> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    // Parameters: a directory (every regular file in it is compressed) or a
+    // list of files, and the directory to write the compressed files to
+    // Behavior: Compresses every file concurrently into outputDirectory as
+    // its name plus SUFFIX, and writes the tables they use to TABLE_FILENAME
+    // there. Tables still cached from earlier batches are reused, but the
+    // table file holds only the tables of this batch.
+    public void compress(List<Path> inputs, Path outputDirectory) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(input)) {
+                    for (Path entry : entries) {
+                        if (Files.isRegularFile(entry)) {
+                            files.add(entry);
+                        }
+                    }
+                }
+            } else {
+                files.add(input);
+            }
+        }
+        Files.createDirectories(outputDirectory);
+        Batch batch = new Batch();
+        runAll(files, file -> compressFile(batch, file, outputDirectory.resolve(file.getFileName() + SUFFIX)));
+        batch.writeTables(outputDirectory.resolve(TABLE_FILENAME));
+    }
+
+    // Parameters: directory written by compress and the directory to write
+    // the original files to
+    // Behavior: Loads the table file and decompresses every compressed file
+    // in the directory concurrently, restoring the original names
+    public static void decompress(Path directory, Path outputDirectory) throws IOException {
+        HuffmanDecoder[] decoders = readTables(directory.resolve(TABLE_FILENAME));
+        List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : entries) {
+                files.add(entry);
+            }
+        }
+        Files.createDirectories(outputDirectory);
+        runAll(files, file -> {
+            String name = file.getFileName().toString();
+            Path output = outputDirectory.resolve(name.substring(0, name.length() - SUFFIX.length()));
+            decompressFile(decoders, file, output);
+        });
+    }
+
+    // Behavior: Returns how many files reused a cached table
+    public synchronized long cacheHits() {
+        return hits;
+    }
+
+    // Behavior: Returns how many files needed a new table
+    public synchronized long cacheMisses() {
+        return misses;
+    }
+
+    // Parameters: batch the file belongs to, file to compress and where to
+    // write it
+    // Behavior: Writes MAGIC, the batch's id of the table, the original
+    // length, the bit length and the bits. The table comes from the cache
+    // when a file with the same signature has been seen, and is built from
+    // this file otherwise.
+    private void compressFile(Batch batch, Path file, Path output) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        long[] frequencies = new long[HuffmanCompressor.CHAR_MAX];
+        for (byte b : data) {
+            frequencies[b & 0xFF]++;
+        }
+        int id = NO_TABLE;
+        ByteArrayOutputStream bits = new ByteArrayOutputStream(data.length / 2 + 8);
+        long bitLength = 0;
+        if (data.length > 0) {
+            Table table = table(frequencies);
+            id = batch.id(table);
+            BitWriter writer = new BitWriter(Channels.newChannel(bits), 1 << 12);
+            table.encoder.encode(data, 0, data.length, writer);
+            bitLength = writer.bitsWritten();
+            writer.finish();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(id);
+            out.writeLong(data.length);
+            out.writeLong(bitLength);
+            bits.writeTo(out);
+        }
+    }
+
+    // Parameters: decoders of the table file, compressed file and where to
+    // write the original
+    private static void decompressFile(HuffmanDecoder[] decoders, Path file, Path output) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a batch compressed file: " + file);
+            }
+            int id = in.readInt();
+            long length = in.readLong();
+            long bitLength = in.readLong();
+            if (id < NO_TABLE || id >= decoders.length || length > Integer.MAX_VALUE) {
+                throw new IOException("Invalid batch compressed file: " + file);
+            }
+            byte[] data = new byte[(int) length];
+            if (id != NO_TABLE) {
+                byte[] bits = new byte[(int) ((bitLength + 7) / 8)];
+                in.readFully(bits);
+                decoders[id].decode(bits, 0, bits.length, bitLength, data, 0, data.length);
+            }
+            Files.write(output, data);
+        }
+    }
+
+    // Parameters: frequencies of a non-empty file
+    // Behavior: Returns the cached table for the file's signature if it codes
+    // the file almost as well as the file's own code could, building and
+    // caching a table from these frequencies otherwise, so a hit builds no
+    // table at all. Tables are built outside the lock; if two threads miss on
+    // the same signature at once, the first to finish wins and the other
+    // table is dropped.
+    private Table table(long[] frequencies) {
+        Signature signature = new Signature(frequencies);
+        double ownBits = ownBits(frequencies);
+        synchronized (this) {
+            Table table = cache.get(signature);
+            if (table != null && table.fits(frequencies, ownBits)) {
+                hits++;
+                return table;
+            }
+        }
+        // Every byte value gets a (long) code, so later files with the same
+        // signature can use the table even if they hold bytes this one lacks
+        long[] smoothed = new long[HuffmanCompressor.CHAR_MAX];
+        for (int i = 0; i < smoothed.length; i++) {
+            smoothed[i] = frequencies[i] * SMOOTHING + 1;
+        }
+        Table built = new Table(new HuffmanCode(smoothed, HuffmanCompressor.MAX_CODE_LENGTH));
+        synchronized (this) {
+            Table table = cache.get(signature);
+            if (table != null && table.fits(frequencies, ownBits)) {
+                hits++;
+                return table;
+            }
+            misses++;
+            cache.put(signature, built);
+            return built;
+        }
+    }
+
+    // Behavior: Reads a table file and returns a decoder for every table
+    private static HuffmanDecoder[] readTables(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            HuffmanDecoder[] decoders = new HuffmanDecoder[in.readInt()];
+            for (int i = 0; i < decoders.length; i++) {
+                decoders[i] = new HuffmanCode(in).decoder();
+            }
+            return decoders;
+        }
+    }
+
+    // Parameters: frequencies of a non-empty file
+    // Behavior: Returns the most bits a Huffman code built for these
+    // frequencies could take, without building one: the entropy of the
+    // histogram plus HUFFMAN_REDUNDANCY and the probability of the most
+    // common value per symbol
+    private static double ownBits(long[] frequencies) {
+        long total = 0;
+        long most = 0;
+        for (long frequency : frequencies) {
+            total += frequency;
+            most = Math.max(most, frequency);
+        }
+        double entropy = 0;
+        for (long frequency : frequencies) {
+            if (frequency > 0) {
+                entropy += frequency * (Math.log((double) total / frequency) / Math.log(2));
+            }
+        }
+        return entropy + total * ((double) most / total + HUFFMAN_REDUNDANCY);
+    }
+
+    // A code table and its encoder, shared by the files of any batch while
+    // it stays in the cache
+    private static class Table {
+        private HuffmanCode code;
+        private HuffmanEncoder encoder;
+        private int[] lengths;
+
+        public Table(HuffmanCode code) {
+            this.code = code;
+            this.encoder = code.encoder();
+            this.lengths = code.codeLengths();
+        }
+
+        // Parameters: frequencies of a file and the most bits its own code
+        // could take
+        // Behavior: Returns whether this table codes the file in at most
+        // 1/SLACK more bits than that
+        public boolean fits(long[] frequencies, double ownBits) {
+            long bits = HuffmanCode.compressedBits(lengths, frequencies);
+            return bits >= 0 && bits <= ownBits + ownBits / SLACK;
+        }
+    }
+
+    // The tables used by the files of one call to compress, numbered in the
+    // order the files first asked for them
+    private static class Batch {
+        private Map<Table, Integer> ids = new IdentityHashMap<Table, Integer>();
+        private List<HuffmanCode> tables = new ArrayList<HuffmanCode>();
+
+        // Behavior: Returns the table's id in this batch, giving it the next
+        // one if no file of the batch has used it yet
+        public synchronized int id(Table table) {
+            Integer id = ids.get(table);
+            if (id == null) {
+                id = tables.size();
+                ids.put(table, id);
+                tables.add(table.code);
+            }
+            return id;
+        }
+
+        // Behavior: Writes the number of tables and then each table's header
+        public synchronized void writeTables(Path file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(tables.size());
+                for (HuffmanCode code : tables) {
+                    code.writeHeader(out);
+                }
+            }
+        }
+    }
+
+    // Work done on one file
+    private interface FileTask {
+        void run(Path file) throws IOException;
+    }
+
+    // Behavior: Runs the task on every file concurrently, one virtual thread
+    // per file where the JVM has them (Java 21 and later) and on a pool with
+    // a thread per processor otherwise, and rethrows the first failure
+    private static void runAll(List<Path> files, FileTask task) throws IOException {
+        ExecutorService executor = newExecutor();
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (Path file : files) {
+                results.add(executor.submit(() -> {
+                    task.run(file);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Behavior: Returns a virtual-thread-per-task executor if this JVM has
+    // one, looked up reflectively so the class still runs on older JVMs
+    private static ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    // A rough fingerprint of a histogram: for every byte value, about how
+    // many bits its code would take (floor(log2(total / frequency)) + 1),
+    // in steps of LEVEL_WIDTH bits and with rare and missing values lumped
+    // together. Files with equal signatures would get similar codes, so one
+    // table serves them all.
+    private static class Signature {
+        private byte[] levels;
+        private int hash;
+
+        public Signature(long[] frequencies) {
+            long total = 0;
+            for (long frequency : frequencies) {
+                total += frequency;
+            }
+            levels = new byte[frequencies.length];
+            for (int i = 0; i < frequencies.length; i++) {
+                int level = RARE_LEVEL;
+                if (frequencies[i] > 0) {
+                    level = Math.min(64 - Long.numberOfLeadingZeros(total / frequencies[i]), RARE_LEVEL);
+                }
+                levels[i] = (byte) ((level + LEVEL_WIDTH - 1) / LEVEL_WIDTH);
+            }
+            hash = Arrays.hashCode(levels);
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof Signature && Arrays.equals(levels, ((Signature) other).levels);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // Compresses or decompresses a batch from the command line:
+    //   java HuffmanBatchCompressor compress <output directory> <directory or files...>
+    //   java HuffmanBatchCompressor decompress <compressed directory> <output directory>
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("compress")) {
+            List<Path> inputs = new ArrayList<Path>();
+            for (int i = 2; i < args.length; i++) {
+                inputs.add(Paths.get(args[i]));
+            }
+            HuffmanBatchCompressor compressor = new HuffmanBatchCompressor();
+            compressor.compress(inputs, Paths.get(args[1]));
+            System.out.println("Compressed with " + compressor.cacheMisses() + " tables built and "
+                    + compressor.cacheHits() + " reused");
+        } else if (args.length == 3 && args[0].equals("decompress")) {
+            decompress(Paths.get(args[1]), Paths.get(args[2]));
+        } else {
+            System.out.println("Usage: java HuffmanBatchCompressor compress <output directory> <directory or files...>");
+            System.out.println("       java HuffmanBatchCompressor decompress <compressed directory> <output directory>");
+        }
+    }
+}
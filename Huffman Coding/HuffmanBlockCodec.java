@@ -0,0 +1,504 @@
+// This class compresses data as a sequence of independent blocks so that
+// blocks can be encoded and decoded concurrently on a ForkJoinPool. Each
+// block is stored in whichever mode its histogram says is smallest: with
+// the shared code, with the code of the last block that had its own, with
+// a new code of its own, or as the original bytes.
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class HuffmanBlockCodec {
+    public static final int MAGIC = 0x48554642;  // "HUFB"
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    // Block modes, stored in the first byte of every block
+    public static final int BLOCK_SHARED = 0;    // uses the code in the file header
+    public static final int BLOCK_TABLE = 1;     // carries its own code header
+    public static final int BLOCK_PREVIOUS = 4;  // uses the code of the last BLOCK_TABLE block
+    public static final int BLOCK_STORED = 5;    // holds the original bytes, uncoded
+    public static final int END = 0xFF;          // marks the end of the blocks
+
+    // Added to a block mode when the block's symbols are dealt out in turn
+    // to STREAMS separate bitstreams, which can be decoded side by side
+    public static final int INTERLEAVED = 2;
+    public static final int STREAMS = 4;
+
+    // The blocks are followed by an index of where every block starts in the
+    // original and in the compressed data, then by a fixed-size trailer
+    // (position of the index and INDEX_MAGIC) so readers can find it from the end
+    public static final int INDEX_MAGIC = 0x48554649;  // "HUFI"
+    public static final int TRAILER_SIZE = 12;
+
+    // Per-block codes are built by a builder owned by the encoding thread
+    private static final ThreadLocal<HuffmanTableBuilder> BUILDERS =
+            ThreadLocal.withInitial(HuffmanTableBuilder::new);
+
+    private int blockSize;
+    private ForkJoinPool pool;
+    private int maxInFlight;
+    private boolean interleaved;
+    private LongAdder tableMisses = new LongAdder();
+
+    // Behavior: Creates a codec with the default block size on the common pool
+    public HuffmanBlockCodec() {
+        this(DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    // Parameters: number of input bytes per block and the pool to run on
+    // Behavior: Creates a codec that keeps at most two blocks per worker in memory
+    public HuffmanBlockCodec(int blockSize, ForkJoinPool pool) {
+        this(blockSize, pool, false);
+    }
+
+    // Parameters: number of input bytes per block, the pool to run on and
+    // whether to split every block into STREAMS interleaved bitstreams
+    // Behavior: Creates a codec that keeps at most two blocks per worker in
+    // memory. Decompressing handles both layouts whatever this is set to.
+    public HuffmanBlockCodec(int blockSize, ForkJoinPool pool, boolean interleaved) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Illegal block size: " + blockSize);
+        }
+        this.blockSize = blockSize;
+        this.pool = pool;
+        this.maxInFlight = 2 * pool.getParallelism();
+        this.interleaved = interleaved;
+    }
+
+    // Parameters: code stored once for all blocks to share (null for none),
+    // input to read, how many bytes of it to compress and output to write
+    // the blocks to
+    // Behavior: Splits the input into blocks, counts and encodes them
+    // concurrently and writes them in order. The mode of every block is
+    // chosen in order between the counting and the encoding, since reusing
+    // the previous block's code depends on what the blocks before chose.
+    public void compress(HuffmanCode code, InputStream input, long length,
+                         OutputStream output) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output));
+        writeFileHeader(data, blockSize, code);
+        BlockSelector selector = new BlockSelector(code, interleaved);
+        Deque<ForkJoinTask<BlockPlan>> counting = new ArrayDeque<ForkJoinTask<BlockPlan>>();
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<ForkJoinTask<byte[]>>();
+        List<Long> originalOffsets = new ArrayList<Long>();
+        List<Long> compressedOffsets = new ArrayList<Long>();
+        long position = data.size();
+        long remaining = length;
+        while (remaining > 0) {
+            byte[] block = new byte[(int) Math.min(blockSize, remaining)];
+            int size = readFully(input, block);
+            if (size == 0) {
+                break;
+            }
+            originalOffsets.add(length - remaining);
+            remaining -= size;
+            counting.add(pool.submit(() -> plan(block, size)));
+            if (counting.size() >= maxInFlight) {
+                BlockPlan plan = selector.select(join(counting.remove()));
+                pending.add(pool.submit(() -> encodeBlock(plan)));
+            }
+            if (pending.size() >= maxInFlight) {
+                compressedOffsets.add(position);
+                position += write(data, join(pending.remove()));
+            }
+        }
+        while (!counting.isEmpty()) {
+            BlockPlan plan = selector.select(join(counting.remove()));
+            pending.add(pool.submit(() -> encodeBlock(plan)));
+        }
+        while (!pending.isEmpty()) {
+            compressedOffsets.add(position);
+            position += write(data, join(pending.remove()));
+        }
+        writeIndex(data, originalOffsets, compressedOffsets, length - remaining, position);
+        data.flush();
+    }
+
+    // Parameters: output, number of input bytes per block and the shared code
+    // (null if the blocks carry their own codes)
+    // Behavior: Writes the file header that readFileHeader reads
+    static void writeFileHeader(DataOutputStream data, int blockSize, HuffmanCode code) throws IOException {
+        data.writeInt(MAGIC);
+        data.writeInt(blockSize);
+        data.writeBoolean(code != null);
+        if (code != null) {
+            code.writeHeader(data);
+        }
+    }
+
+    // Parameters: output positioned just after the last block, where each
+    // block starts in the original and in the compressed data, the total
+    // original length and the position of the output in the compressed data
+    // Behavior: Writes the END marker, the block index and the trailer
+    static void writeIndex(DataOutputStream data, List<Long> originalOffsets, List<Long> compressedOffsets,
+                           long length, long position) throws IOException {
+        data.writeByte(END);
+        data.writeInt(originalOffsets.size());
+        data.writeLong(length);
+        for (int i = 0; i < originalOffsets.size(); i++) {
+            data.writeLong(originalOffsets.get(i));
+            data.writeLong(compressedOffsets.get(i));
+        }
+        data.writeLong(position + 1);
+        data.writeInt(INDEX_MAGIC);
+    }
+
+    // Parameters: input positioned just after the END marker
+    // Behavior: Reads past the block index and the trailer, checking that
+    // they are well formed, and returns the total original length
+    static long skipIndex(DataInputStream data) throws IOException {
+        int count = data.readInt();
+        long length = data.readLong();
+        for (int i = 0; i < 2 * count; i++) {
+            data.readLong();
+        }
+        data.readLong();
+        if (data.readInt() != INDEX_MAGIC) {
+            throw new IOException("Block file has no index");
+        }
+        return length;
+    }
+
+    // Behavior: Writes a serialized block and returns its size in bytes
+    private static int write(DataOutputStream data, byte[] block) throws IOException {
+        data.write(block);
+        return block.length;
+    }
+
+    // Parameters: input written by compress and output to write the original bytes to
+    // Behavior: Reads the blocks in order, decodes them concurrently and writes
+    // the decoded bytes in order
+    public void decompress(InputStream input, OutputStream output) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+        HuffmanDecoder shared = readFileHeader(data);
+        tableMisses.reset();
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<ForkJoinTask<byte[]>>();
+        HuffmanDecoder previous = null;
+        int mode = data.readUnsignedByte();
+        while (mode != END) {
+            CompressedBlock block = readBlock(data, mode, shared, previous);
+            if (block.hasTable()) {
+                previous = block.decoder;
+            }
+            pending.add(pool.submit(() -> decode(block)));
+            if (pending.size() >= maxInFlight) {
+                output.write(join(pending.remove()));
+            }
+            mode = data.readUnsignedByte();
+        }
+        while (!pending.isEmpty()) {
+            output.write(join(pending.remove()));
+        }
+        output.flush();
+    }
+
+    // Behavior: Returns how many symbols the decode tables could not resolve
+    // in one lookup during the last call to decompress
+    public long tableMisses() {
+        return tableMisses.sum();
+    }
+
+    // Behavior: Decodes the block and counts its table misses
+    private byte[] decode(CompressedBlock block) throws IOException {
+        byte[] result = block.decode();
+        tableMisses.add(block.misses);
+        return result;
+    }
+
+    // Parameters: input positioned at the start of a block file
+    // Behavior: Checks the file header and returns a decoder for the shared
+    // code, or null if the blocks all carry their own codes
+    static HuffmanDecoder readFileHeader(DataInputStream data) throws IOException {
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a Huffman block file");
+        }
+        data.readInt();  // block size, only needed when writing
+        return data.readBoolean() ? new HuffmanCode(data).decoder() : null;
+    }
+
+    // Parameters: input positioned just after a block's mode byte, the mode,
+    // the decoder for the shared code (null if there is none) and the decoder
+    // of the last BLOCK_TABLE block read (null if there is none)
+    // Behavior: Reads the rest of the block without decoding it
+    static CompressedBlock readBlock(DataInputStream data, int mode, HuffmanDecoder shared,
+                                     HuffmanDecoder previous) throws IOException {
+        HuffmanDecoder decoder;
+        int streams = (mode & INTERLEAVED) != 0 ? STREAMS : 1;
+        mode &= ~INTERLEAVED;
+        if (mode == BLOCK_STORED) {
+            byte[] bytes = new byte[data.readInt()];
+            data.readFully(bytes);
+            return new CompressedBlock(null, bytes.length, null, bytes, false);
+        } else if (mode == BLOCK_SHARED && shared != null) {
+            decoder = shared;
+        } else if (mode == BLOCK_PREVIOUS && previous != null) {
+            decoder = previous;
+        } else if (mode == BLOCK_TABLE) {
+            decoder = readTable(data);
+        } else {
+            throw new IOException("Invalid block mode: " + mode);
+        }
+        int size = data.readInt();
+        long[] bitLengths = new long[streams];
+        long bytes = 0;
+        for (int i = 0; i < streams; i++) {
+            bitLengths[i] = data.readLong();
+            bytes += (bitLengths[i] + 7) / 8;
+        }
+        byte[] bits = new byte[(int) bytes];
+        data.readFully(bits);
+        return new CompressedBlock(decoder, size, bitLengths, bits, mode == BLOCK_TABLE);
+    }
+
+    // Parameters: input positioned at the code header of a BLOCK_TABLE block
+    // Behavior: Reads the header and returns a decoder for it
+    static HuffmanDecoder readTable(DataInputStream data) throws IOException {
+        int[] lengths = HuffmanCode.readCodeLengths(data);
+        try {
+            return new HuffmanDecoder(lengths, HuffmanDecoder.tableBits(maxLength(lengths)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Huffman header", e);
+        }
+    }
+
+    // Parameters: block bytes and how many of them to compress
+    // Behavior: Counts the bytes of the block and builds the code it would
+    // get as a BLOCK_TABLE block. Blocks are planned concurrently and then
+    // given a mode in order by a BlockSelector.
+    static BlockPlan plan(byte[] block, int size) {
+        int[] counts0 = new int[HuffmanCompressor.CHAR_MAX];
+        int[] counts1 = new int[HuffmanCompressor.CHAR_MAX];
+        int[] counts2 = new int[HuffmanCompressor.CHAR_MAX];
+        int[] counts3 = new int[HuffmanCompressor.CHAR_MAX];
+        int i = 0;
+        for (; i + 3 < size; i += 4) {
+            counts0[block[i] & 0xFF]++;
+            counts1[block[i + 1] & 0xFF]++;
+            counts2[block[i + 2] & 0xFF]++;
+            counts3[block[i + 3] & 0xFF]++;
+        }
+        for (; i < size; i++) {
+            counts0[block[i] & 0xFF]++;
+        }
+        long[] frequencies = new long[HuffmanCompressor.CHAR_MAX];
+        for (i = 0; i < frequencies.length; i++) {
+            frequencies[i] = (long) counts0[i] + counts1[i] + counts2[i] + counts3[i];
+        }
+        int[] lengths = BUILDERS.get().codeLengths(frequencies, HuffmanCompressor.MAX_CODE_LENGTH).clone();
+        return new BlockPlan(block, size, frequencies, lengths);
+    }
+
+    // Parameters: a block planned by plan and given its mode by a BlockSelector
+    // Behavior: Returns the complete serialized block: its mode, then for a
+    // stored block its length and bytes, and otherwise its code header if it
+    // has one, its length, the bit length of each stream and the bits of
+    // each stream in turn
+    static byte[] encodeBlock(BlockPlan plan) throws IOException {
+        int size = plan.size;
+        if (plan.mode == BLOCK_STORED) {
+            byte[] result = new byte[5 + size];
+            result[0] = (byte) BLOCK_STORED;
+            result[1] = (byte) (size >>> 24);
+            result[2] = (byte) (size >>> 16);
+            result[3] = (byte) (size >>> 8);
+            result[4] = (byte) size;
+            System.arraycopy(plan.block, 0, result, 5, size);
+            return result;
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream(size / 2 + 64);
+        DataOutputStream data = new DataOutputStream(result);
+        data.writeByte(plan.mode | (plan.interleaved ? INTERLEAVED : 0));
+        if (plan.mode == BLOCK_TABLE) {
+            HuffmanCode.writeHeader(plan.lengths, data);
+        }
+        int streams = plan.interleaved ? STREAMS : 1;
+        ByteArrayOutputStream[] bits = new ByteArrayOutputStream[streams];
+        BitWriter[] writers = new BitWriter[streams];
+        for (int i = 0; i < streams; i++) {
+            bits[i] = new ByteArrayOutputStream(size / (2 * streams) + 8);
+            writers[i] = new BitWriter(Channels.newChannel(bits[i]), 1 << 12);
+        }
+        HuffmanEncoder encoder = plan.encoder;
+        int encoded = plan.interleaved ? encoder.encodeInterleaved(plan.block, 0, size, writers)
+                : encoder.encode(plan.block, 0, size, writers[0]);
+        if (encoded < size) {
+            int missing = plan.block[encoded] & 0xFF;
+            throw new IllegalArgumentException("Missing code for " + missing + " ('" + (char) missing + "')");
+        }
+        data.writeInt(size);
+        for (BitWriter writer : writers) {
+            data.writeLong(writer.bitsWritten());
+            writer.finish();
+        }
+        for (ByteArrayOutputStream stream : bits) {
+            stream.writeTo(data);
+        }
+        return result.toByteArray();
+    }
+
+    // Behavior: Returns the longest of the given code lengths
+    private static int maxLength(int[] lengths) {
+        int max = 0;
+        for (int length : lengths) {
+            max = Math.max(max, length);
+        }
+        return max;
+    }
+
+    // Behavior: Waits for the task and returns its result, rethrowing the
+    // IOException or unchecked exception it failed with
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // Behavior: Reads until the buffer is full or the input ends and returns
+    // how many bytes were read
+    private static int readFully(InputStream input, byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int n = input.read(buffer, read, buffer.length - read);
+            if (n == -1) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    // A block read from a block file but not yet decoded
+    static class CompressedBlock {
+        private HuffmanDecoder decoder;  // null for a stored block
+        private int size;
+        private long[] bitLengths;       // one per stream
+        private byte[] bits;             // the original bytes of a stored block
+        private boolean hasTable;
+        private long misses;
+
+        public CompressedBlock(HuffmanDecoder decoder, int size, long[] bitLengths, byte[] bits,
+                               boolean hasTable) {
+            this.decoder = decoder;
+            this.size = size;
+            this.bitLengths = bitLengths;
+            this.bits = bits;
+            this.hasTable = hasTable;
+        }
+
+        // post: returns whether the block carried its own code, which later
+        //       BLOCK_PREVIOUS blocks reuse
+        public boolean hasTable() {
+            return hasTable;
+        }
+
+        // post: returns the decoder of the block's code (null if stored)
+        public HuffmanDecoder decoder() {
+            return decoder;
+        }
+
+        // post: returns the original bytes of the block. A stored block
+        //       returns the bytes it was read into, without copying them.
+        public byte[] decode() throws IOException {
+            if (decoder == null) {
+                return bits;
+            }
+            byte[] block = new byte[size];
+            if (bitLengths.length == 1) {
+                misses = decoder.decode(bits, 0, bits.length, bitLengths[0], block, 0, size);
+            } else {
+                misses = decoder.decodeInterleaved(bits, 0, bitLengths, block, 0, size);
+            }
+            return block;
+        }
+    }
+
+    // A block that has been counted, and the mode and code chosen for it
+    static class BlockPlan {
+        private byte[] block;
+        private int size;
+        private long[] frequencies;
+        private int[] lengths;           // of the block's own code
+        private int mode;
+        private HuffmanEncoder encoder;  // null for a stored block
+        private boolean interleaved;
+
+        public BlockPlan(byte[] block, int size, long[] frequencies, int[] lengths) {
+            this.block = block;
+            this.size = size;
+            this.frequencies = frequencies;
+            this.lengths = lengths;
+        }
+    }
+
+    // Chooses the mode of every block of one file in turn. The size of each
+    // mode is estimated from the block's histogram: the bits of every code
+    // are known exactly from its lengths, to which a new code adds its header
+    // and every coded block the bit lengths of its streams. A stored block
+    // costs its original size, so incompressible data is just copied.
+    static class BlockSelector {
+        private int[] sharedLengths;      // null if there is no shared code
+        private HuffmanEncoder shared;
+        private int[] previousLengths;    // of the last BLOCK_TABLE block, or null
+        private HuffmanEncoder previous;
+        private boolean interleaved;
+
+        // pre : code is the code in the file header (null if none)
+        public BlockSelector(HuffmanCode code, boolean interleaved) {
+            if (code != null) {
+                sharedLengths = code.codeLengths();
+                shared = code.encoder();
+            }
+            this.interleaved = interleaved;
+        }
+
+        // post: sets the mode and encoder of the planned block, preferring
+        //       the shared code, then the previous code, then a new code and
+        //       then storing when estimates tie, and returns the plan
+        public BlockPlan select(BlockPlan plan) {
+            long streamBits = 64L * (interleaved ? STREAMS : 1);
+            plan.mode = BLOCK_STORED;
+            plan.encoder = null;
+            plan.interleaved = interleaved;
+            long best = 8L * plan.size;
+            long own = HuffmanCode.compressedBits(plan.lengths, plan.frequencies)
+                    + 8L * HuffmanCode.headerSize(plan.lengths) + streamBits;
+            if (own < best) {
+                best = own;
+                plan.mode = BLOCK_TABLE;
+            }
+            if (previousLengths != null) {
+                long bits = HuffmanCode.compressedBits(previousLengths, plan.frequencies);
+                if (bits != -1 && bits + streamBits <= best) {
+                    best = bits + streamBits;
+                    plan.mode = BLOCK_PREVIOUS;
+                    plan.encoder = previous;
+                }
+            }
+            if (sharedLengths != null) {
+                long bits = HuffmanCode.compressedBits(sharedLengths, plan.frequencies);
+                if (bits != -1 && bits + streamBits <= best) {
+                    plan.mode = BLOCK_SHARED;
+                    plan.encoder = shared;
+                }
+            }
+            if (plan.mode == BLOCK_TABLE) {
+                previousLengths = plan.lengths;
+                previous = new HuffmanEncoder(plan.lengths);
+                plan.encoder = previous;
+            }
+            return plan;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+// This class reads ranges of the original data out of a block file written
+// by HuffmanBlockCodec, decoding only the blocks that cover each range
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class HuffmanBlockReader implements Closeable {
+    private FileChannel channel;
+    private HuffmanDecoder shared;
+    private long length;               // total length of the original data
+    private long[] originalOffsets;    // where each block starts in the original data
+    private long[] compressedOffsets;  // where each block starts in the file
+    private long blocksEnd;            // position of the END marker after the last block
+
+    // Most recently decoded block, since nearby lookups often hit the same one
+    private int cachedIndex;
+    private byte[] cachedBlock;
+
+    // Decoder of the most recently read BLOCK_TABLE block, which the
+    // BLOCK_PREVIOUS blocks after it reuse
+    private int tableIndex;
+    private HuffmanDecoder table;
+
+    // pre : filename names a block file written by HuffmanBlockCodec
+    // post: opens the file and loads its block index from the trailer
+    public HuffmanBlockReader(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            shared = HuffmanBlockCodec.readFileHeader(dataAt(0, 1 << 12));
+            long size = channel.size();
+            ByteBuffer trailer = ByteBuffer.allocate(HuffmanBlockCodec.TRAILER_SIZE);
+            readFully(trailer, size - HuffmanBlockCodec.TRAILER_SIZE);
+            long indexPosition = trailer.getLong(0);
+            if (trailer.getInt(8) != HuffmanBlockCodec.INDEX_MAGIC) {
+                throw new IOException("Block file has no index");
+            }
+            DataInputStream index = dataAt(indexPosition, 1 << 16);
+            int count = index.readInt();
+            length = index.readLong();
+            originalOffsets = new long[count];
+            compressedOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                originalOffsets[i] = index.readLong();
+                compressedOffsets[i] = index.readLong();
+            }
+            blocksEnd = indexPosition - 1;
+            cachedIndex = -1;
+            tableIndex = -1;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // post: returns the length of the original data
+    public long length() {
+        return length;
+    }
+
+    // pre : 0 <= offset, 0 <= length and offset + length <= length()
+    // post: returns the given range of the original data
+    public byte[] readRange(long offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + length
+                    + " outside data of length " + this.length);
+        }
+        byte[] result = new byte[length];
+        int copied = 0;
+        int index = blockAt(offset);
+        while (copied < length) {
+            byte[] block = block(index);
+            int start = (int) (offset + copied - originalOffsets[index]);
+            int count = Math.min(block.length - start, length - copied);
+            System.arraycopy(block, start, result, copied, count);
+            copied += count;
+            index++;
+        }
+        return result;
+    }
+
+    // post: returns the index of the block holding the given original offset
+    private int blockAt(long offset) {
+        int index = Arrays.binarySearch(originalOffsets, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    // post: returns the decoded contents of the block with the given index
+    private byte[] block(int index) throws IOException {
+        if (index != cachedIndex) {
+            long end = index + 1 < compressedOffsets.length ? compressedOffsets[index + 1] : blocksEnd;
+            int size = (int) (end - compressedOffsets[index]);
+            DataInputStream data = dataAt(compressedOffsets[index], size);
+            int mode = data.readUnsignedByte();
+            HuffmanDecoder previous = null;
+            if ((mode & ~HuffmanBlockCodec.INTERLEAVED) == HuffmanBlockCodec.BLOCK_PREVIOUS) {
+                previous = tableBefore(index);
+            }
+            HuffmanBlockCodec.CompressedBlock block = HuffmanBlockCodec.readBlock(data, mode, shared, previous);
+            if (block.hasTable()) {
+                tableIndex = index;
+                table = block.decoder();
+            }
+            cachedBlock = block.decode();
+            cachedIndex = index;
+        }
+        return cachedBlock;
+    }
+
+    // post: returns the decoder of the last BLOCK_TABLE block before the
+    //       block with the given index, or null if there is none. Looks back
+    //       block by block, reading only mode bytes, unless the cached table
+    //       is known to be that block's.
+    private HuffmanDecoder tableBefore(int index) throws IOException {
+        for (int i = index - 1; i >= 0; i--) {
+            if (i == tableIndex) {
+                return table;
+            }
+            DataInputStream data = dataAt(compressedOffsets[i], 1 << 10);
+            int mode = data.readUnsignedByte() & ~HuffmanBlockCodec.INTERLEAVED;
+            if (mode == HuffmanBlockCodec.BLOCK_TABLE) {
+                tableIndex = i;
+                table = HuffmanBlockCodec.readTable(data);
+                return table;
+            }
+        }
+        return null;
+    }
+
+    // post: returns a stream over the file starting at the given position,
+    //       reading it in chunks of the given size
+    private DataInputStream dataAt(long position, int bufferSize) throws IOException {
+        InputStream input = Channels.newInputStream(channel.position(position));
+        return new DataInputStream(new BufferedInputStream(input, bufferSize));
+    }
+
+    // post: fills the buffer from the file starting at the given position
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("Truncated block file");
+            }
+        }
+    }
+
+    // post: the file is closed
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -5,13 +5,37 @@ import java.util.*;
 import java.io.*;
 
 public class HuffmanCode {
+    // Size of the bitmap at the start of a binary header, one bit per symbol
+    public static final int HEADER_BITMAP_BYTES = HuffmanCompressor.CHAR_MAX / 8;
+
     private HuffmanNode overallRoot;
+    private HuffmanDecoder decoder;
+    private HuffmanEncoder encoder;
 
     // Parameters: array of frequencies
     // Behavior: Creates a new HuffmanCode from the given array of 
     // frequencies where frequencies[i] is the count for each
     // ASCII value
     public HuffmanCode(int[] frequencies) {
+        this(toLong(frequencies));
+    }
+
+    // Parameters: array of frequencies
+    // Behavior: Creates a new HuffmanCode from the given array of
+    // frequencies, which may be larger than an int for files over 2 GB
+    public HuffmanCode(long[] frequencies) {
+        this(frequencies, HuffmanEncoder.MAX_CODE_LENGTH);
+    }
+
+    // Parameters: array of frequencies and the longest code length allowed
+    // Behavior: Creates a new HuffmanCode from the given frequencies in which
+    // no code is longer than maxLength bits. If the Huffman tree is deeper than
+    // that, the lengths are rebuilt with the package-merge algorithm, which
+    // gives the smallest output among all codes within the limit.
+    public HuffmanCode(long[] frequencies, int maxLength) {
+        if (maxLength < 1 || maxLength > HuffmanEncoder.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Illegal maximum code length: " + maxLength);
+        }
         Queue<HuffmanNode> count = new PriorityQueue<HuffmanNode>();
         for (int i = 0; i < frequencies.length; i++) {
             if (frequencies[i] > 0) {
@@ -26,6 +50,271 @@ public class HuffmanCode {
             count.add(added);
         }
         overallRoot = count.remove();
+        int[] lengths = codeLengths();
+        if (maxCodeLength(lengths) > maxLength) {
+            lengths = limitedLengths(frequencies, maxLength);
+        }
+        overallRoot = canonicalTree(lengths);
+    }
+
+    // Parameters: array of frequencies and the longest code length allowed
+    // Behavior: Returns optimal code lengths of at most maxLength bits using
+    // package-merge. Level lists are built from the deepest level up: each
+    // holds the symbols merged with pairs ("packages") of the list below, in
+    // order of weight. Taking the 2n - 2 lightest items of the top list and
+    // following the packages down, a symbol's code length is the number of
+    // levels it is taken from.
+    private static int[] limitedLengths(long[] frequencies, int maxLength) {
+        int n = 0;
+        for (long frequency : frequencies) {
+            if (frequency > 0) {
+                n++;
+            }
+        }
+        if (maxLength < 64 && n > 1L << maxLength) {
+            throw new IllegalArgumentException(n + " symbols do not fit in codes of " + maxLength + " bits");
+        }
+        Integer[] symbols = new Integer[n];
+        int next = 0;
+        for (int i = 0; i < frequencies.length; i++) {
+            if (frequencies[i] > 0) {
+                symbols[next++] = i;
+            }
+        }
+        Arrays.sort(symbols, (a, b) -> Long.compare(frequencies[a], frequencies[b]));
+
+        // packages[level][i] says whether item i of that level's list is a package
+        boolean[][] packages = new boolean[maxLength][];
+        long[] previous = null;
+        for (int level = 0; level < maxLength; level++) {
+            int pairs = previous == null ? 0 : previous.length / 2;
+            long[] weights = new long[n + pairs];
+            packages[level] = new boolean[n + pairs];
+            int leaf = 0;
+            int pair = 0;
+            for (int i = 0; i < weights.length; i++) {
+                long packaged = pair < pairs ? previous[2 * pair] + previous[2 * pair + 1] : Long.MAX_VALUE;
+                if (leaf < n && frequencies[symbols[leaf]] <= packaged) {
+                    weights[i] = frequencies[symbols[leaf++]];
+                } else {
+                    weights[i] = packaged;
+                    packages[level][i] = true;
+                    pair++;
+                }
+            }
+            previous = weights;
+        }
+
+        int[] lengths = new int[frequencies.length];
+        int selected = 2 * n - 2;
+        for (int level = maxLength - 1; level >= 0 && selected > 0; level--) {
+            int leaves = 0;
+            int chosen = 0;
+            for (int i = 0; i < selected; i++) {
+                if (packages[level][i]) {
+                    chosen++;
+                } else {
+                    lengths[symbols[leaves++]]++;
+                }
+            }
+            selected = 2 * chosen;
+        }
+        if (n == 1) {
+            lengths[symbols[0]] = 1;
+        }
+        return lengths;
+    }
+
+    // Behavior: Returns the longest of the given code lengths
+    private static int maxCodeLength(int[] lengths) {
+        int max = 0;
+        for (int length : lengths) {
+            max = Math.max(max, length);
+        }
+        return max;
+    }
+
+    // Behavior: Returns the length in bits of the longest code
+    public int maxCodeLength() {
+        return maxCodeLength(codeLengths());
+    }
+
+    // Parameters: array of frequencies
+    // Behavior: Returns how many bits this code would take to encode data
+    // with the given frequencies, or -1 if some value has no code
+    public long compressedBits(long[] frequencies) {
+        return compressedBits(codeLengths(), frequencies);
+    }
+
+    // Parameters: code length of each value (0 for none) and frequencies
+    // Behavior: Returns how many bits a code with these lengths would take to
+    // encode data with the given frequencies, or -1 if some value has no code
+    static long compressedBits(int[] lengths, long[] frequencies) {
+        long bits = 0;
+        for (int i = 0; i < frequencies.length; i++) {
+            if (frequencies[i] > 0) {
+                if (lengths[i] == 0) {
+                    return -1;
+                }
+                bits += frequencies[i] * lengths[i];
+            }
+        }
+        return bits;
+    }
+
+    // Parameters: InputStream input positioned at a binary header
+    // written by writeHeader
+    // Behavior: Builds a new HuffmanCode from the code lengths stored in
+    // the header. Reads exactly the bytes of the header and nothing more.
+    public HuffmanCode(InputStream input) throws IOException {
+        try {
+            overallRoot = canonicalTree(readCodeLengths(input));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Huffman header", e);
+        }
+    }
+
+    // Parameters: InputStream input positioned at a binary header
+    // written by writeHeader
+    // Behavior: Returns the code lengths stored in the header without
+    // building a tree. Reads exactly the bytes of the header.
+    public static int[] readCodeLengths(InputStream input) throws IOException {
+        byte[] bitmap = new byte[HEADER_BITMAP_BYTES];
+        readFully(input, bitmap);
+        int present = 0;
+        for (byte b : bitmap) {
+            present += Integer.bitCount(b & 0xFF);
+        }
+        byte[] stored = new byte[present];
+        readFully(input, stored);
+        int[] lengths = new int[HuffmanCompressor.CHAR_MAX];
+        int next = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            if ((bitmap[i / 8] >>> (i % 8) & 1) != 0) {
+                lengths[i] = stored[next++] & 0xFF;
+                if (lengths[i] == 0) {
+                    throw new IOException("Invalid code length for " + i);
+                }
+            }
+        }
+        return lengths;
+    }
+
+    // Behavior: Creates an empty HuffmanCode for the static factories to fill in
+    private HuffmanCode() {
+    }
+
+    // Parameters: code length in bits for each ASCII value, 0 if the
+    // value has no code
+    // Behavior: Returns the canonical HuffmanCode with the given code lengths
+    public static HuffmanCode fromCodeLengths(int[] lengths) {
+        HuffmanCode result = new HuffmanCode();
+        result.overallRoot = result.canonicalTree(lengths);
+        return result;
+    }
+
+    // Parameters: InputStream input and the array to fill
+    // Behavior: Reads exactly buffer.length bytes or throws EOFException
+    private static void readFully(InputStream input, byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int n = input.read(buffer, read, buffer.length - read);
+            if (n == -1) {
+                throw new EOFException("Truncated Huffman header");
+            }
+            read += n;
+        }
+    }
+
+    // Behavior: Returns the length of the code for each ASCII value, 0 for
+    // values without a code. A tree with a single value gives it length 1.
+    public int[] codeLengths() {
+        int[] lengths = new int[HuffmanCompressor.CHAR_MAX];
+        lengthsHelper(overallRoot, lengths, 0);
+        return lengths;
+    }
+
+    // Parameters: root of tree, lengths array to fill and depth of the root
+    // Behavior: Records the depth of every leaf under the given root
+    private void lengthsHelper(HuffmanNode root, int[] lengths, int depth) {
+        if (root != null) {
+            if (root.left == null && root.right == null) {
+                lengths[root.data] = Math.max(depth, 1);
+            } else {
+                lengthsHelper(root.left, lengths, depth + 1);
+                lengthsHelper(root.right, lengths, depth + 1);
+            }
+        }
+    }
+
+    // Parameters: code length for each ASCII value
+    // Behavior: Builds the tree of the canonical code with the given lengths.
+    // Values are ordered by code length and then by value, and each gets the
+    // next binary number of its length, so the lengths alone describe the code.
+    private HuffmanNode canonicalTree(int[] lengths) {
+        Integer[] order = new Integer[lengths.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> lengths[a] != lengths[b] ? lengths[a] - lengths[b] : a - b);
+        HuffmanNode root = new HuffmanNode(0, 0);
+        long code = 0;
+        int previous = 0;
+        for (int value : order) {
+            int length = lengths[value];
+            if (length > 0) {
+                if (length > HuffmanEncoder.MAX_CODE_LENGTH) {
+                    throw new IllegalArgumentException("Code length too long: " + length);
+                }
+                if (previous > 0) {
+                    code++;
+                }
+                code <<= length - previous;
+                if (length < 64 && code >>> length != 0) {
+                    throw new IllegalArgumentException("Code lengths do not form a prefix code");
+                }
+                previous = length;
+                root = addCanonical(root, value, code, length);
+            }
+        }
+        if (previous == 0) {
+            throw new IllegalArgumentException("No code lengths given");
+        }
+        return root;
+    }
+
+    // Parameters: root of tree, ASCII value, its code (first bit highest) and length
+    // Behavior: Adds a leaf for the value to the tree, creating inner nodes as needed
+    private HuffmanNode addCanonical(HuffmanNode root, int value, long code, int length) {
+        HuffmanNode node = root;
+        for (int bit = length - 1; bit > 0; bit--) {
+            if ((code >>> bit & 1) == 0) {
+                if (node.left == null) {
+                    node.left = new HuffmanNode(0, 0);
+                }
+                node = node.left;
+            } else {
+                if (node.right == null) {
+                    node.right = new HuffmanNode(0, 0);
+                }
+                node = node.right;
+            }
+        }
+        if ((code & 1) == 0) {
+            node.left = new HuffmanNode(value, 0);
+        } else {
+            node.right = new HuffmanNode(value, 0);
+        }
+        return root;
+    }
+
+    // Behavior: Returns a copy of the given frequencies as longs
+    private static long[] toLong(int[] frequencies) {
+        long[] result = new long[frequencies.length];
+        for (int i = 0; i < frequencies.length; i++) {
+            result[i] = frequencies[i];
+        }
+        return result;
     }
 
     // Parameters: Scanner input to scan over files
@@ -85,6 +374,64 @@ public class HuffmanCode {
         }
     }
 
+    // Parameters: InputStream input holding bits packed by HuffmanCompressor
+    // and OutputStream output to write the characters to
+    // Behavior: Decodes the packed bits with a table-driven decoder built
+    // from this code, resolving whole symbols per lookup instead of one bit
+    public void translate(InputStream input, OutputStream output) throws IOException {
+        decoder().decode(input, output);
+    }
+
+    // Behavior: Returns a table-driven decoder for this code
+    public HuffmanDecoder decoder() {
+        if (decoder == null) {
+            decoder = new HuffmanDecoder(overallRoot, HuffmanDecoder.tableBits(maxCodeLength()));
+        }
+        return decoder;
+    }
+
+    // Behavior: Returns an encoder holding this code as (bits, length) pairs
+    public HuffmanEncoder encoder() {
+        if (encoder == null) {
+            encoder = new HuffmanEncoder(overallRoot);
+        }
+        return encoder;
+    }
+
+    // Parameters: OutputStream output to write the header to
+    // Behavior: Writes this code as a compact binary header: a bitmap of
+    // which ASCII values have codes followed by one length byte for each
+    public void writeHeader(OutputStream output) throws IOException {
+        writeHeader(codeLengths(), output);
+    }
+
+    // Parameters: code length for each ASCII value and OutputStream output
+    // Behavior: Writes the header of the canonical code with the given
+    // lengths, the same header writeHeader writes for that code
+    public static void writeHeader(int[] lengths, OutputStream output) throws IOException {
+        byte[] header = new byte[HEADER_BITMAP_BYTES + HuffmanCompressor.CHAR_MAX];
+        int size = HEADER_BITMAP_BYTES;
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] > 0) {
+                header[i / 8] |= 1 << (i % 8);
+                header[size++] = (byte) lengths[i];
+            }
+        }
+        output.write(header, 0, size);
+    }
+
+    // Parameters: code length of each value, 0 for values without a code
+    // Behavior: Returns how many bytes writeHeader writes for these lengths
+    static int headerSize(int[] lengths) {
+        int size = HEADER_BITMAP_BYTES;
+        for (int length : lengths) {
+            if (length > 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
     // Parameters: Takes in a PrintStream output to print outputs to
     // Behavior: Stores the current Huffman codes to output file
     // in standard format
@@ -114,11 +461,11 @@ public class HuffmanCode {
         public HuffmanNode left;
         public HuffmanNode right;
         public int data;
-        public int frequency;
+        public long frequency;
 
         // Behavior: Constructs HuffmanNode for the given data with data
         // for left and right node
-        public HuffmanNode(int data, int frequency, HuffmanNode left, HuffmanNode right) {
+        public HuffmanNode(int data, long frequency, HuffmanNode left, HuffmanNode right) {
             this.data = data;
             this.frequency = frequency;
             this.left = left; 
@@ -127,14 +474,14 @@ public class HuffmanCode {
 
         // Behavior: Constructs HuffmanNode for given data with
         // left and right being null
-        public HuffmanNode(int data, int frequency) {
+        public HuffmanNode(int data, long frequency) {
             this(data, frequency, null, null);
         }
 
         // Computes the difference between the frequency of one HuffmanNode 
         // to another HuffmanNode
         public int compareTo(HuffmanNode other) {
-            return this.frequency - other.frequency;
+            return Long.compare(this.frequency, other.frequency);
         }
     }
 }
@@ -1,62 +1,90 @@
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class HuffmanCompressor {
     public static final int CHAR_MAX = 256;
+    // Longest code allowed, so every code is resolved by a single decode table lookup
+    public static final int MAX_CODE_LENGTH = HuffmanDecoder.MAX_TABLE_BITS;
 
     private String filename;
     private String basename;
     private String codeFilename;
     private String shortFilename;
     private boolean debugShortFile;
+    private boolean blockFormat;
+    private boolean interleaved;
     private String outputFilename;
+    private HuffmanCode code;
+    private List<HuffmanMetricsListener> listeners;
 
     public HuffmanCompressor(String filename, boolean debugShortFile) {
+        this(filename, debugShortFile, false);
+    }
+
+    public HuffmanCompressor(String filename, boolean debugShortFile, boolean blockFormat) {
+        this(filename, debugShortFile, blockFormat, false);
+    }
+
+    // blockFormat selects the block container written by HuffmanBlockCodec, whose
+    // blocks are encoded and decoded concurrently. It is ignored for debug files.
+    // interleaved splits each block into four bitstreams that are decoded side by
+    // side, which decodes faster even on one core. It only applies to blockFormat.
+    public HuffmanCompressor(String filename, boolean debugShortFile, boolean blockFormat,
+                             boolean interleaved) {
         this.filename = filename;
         this.basename = filename.split(".txt")[0];
         this.codeFilename = null;
         this.shortFilename = null;
         this.outputFilename = null;
         this.debugShortFile = debugShortFile;
+        this.blockFormat = blockFormat && !debugShortFile;
+        this.interleaved = interleaved && this.blockFormat;
+        this.listeners = new ArrayList<HuffmanMetricsListener>();
+    }
+
+    // Adds a listener that is given the time of every phase, the sizes read and
+    // written, and statistics of the code and of decoding
+    public void addMetricsListener(HuffmanMetricsListener listener) {
+        listeners.add(listener);
     }
 
     public void makeCode() throws IOException {
         System.out.println("Making the Huffman code for " + filename + "...");
 
-        int[] frequencies = new int[CHAR_MAX];
-        FileInputStream input = new FileInputStream(filename);
-        int curr = input.read();
-        while (curr != -1) {
-            int next = input.read();
-            // Ignore terminating line feed (0x0a followed by -1)
-            if (!(curr == 0x0a && next == -1)) {
-                frequencies[curr] += 1;
-            }
-            curr = next;
-        }
-        input.close();
+        // Ignores a terminating line feed (0x0a as the last character)
+        long start = System.nanoTime();
+        long[] frequencies = new FrequencyCounter().count(filename);
+        phaseCompleted(HuffmanMetricsListener.Phase.COUNT, start, new File(filename).length(), 0);
         System.out.println("   Constructed a frequency array of the characters in your file.");
 
-        HuffmanCode t = new HuffmanCode(frequencies);
-        System.out.println("   Constructed a new HuffmanCode(int[] frequencies)!");
+        start = System.nanoTime();
+        code = new HuffmanCode(frequencies, MAX_CODE_LENGTH);
+        phaseCompleted(HuffmanMetricsListener.Phase.BUILD, start, 0, 0);
+        System.out.println("   Constructed a new HuffmanCode(long[] frequencies, int maxLength)!");
+        codeBuilt(frequencies);
 
-        codeFilename = basename + ".code";
-        t.save(new PrintStream(new File(codeFilename)));
-        System.out.println("   Saved code to " + codeFilename + "!");
+        // Binary short files carry the code in their header, so only the
+        // debug format needs a separate code file
+        if (debugShortFile) {
+            codeFilename = basename + ".code";
+            PrintStream codeOutput = new PrintStream(new File(codeFilename));
+            code.save(codeOutput);
+            codeOutput.close();
+            System.out.println("   Saved code to " + codeFilename + "!");
+        }
 
         System.out.println("...Done making the Huffman Code!");
     }
 
     public void compress() throws IOException {
         System.out.println("Compressing " + basename + ".txt...");
+        long start = System.nanoTime();
 
-        String[] codes = new String[CHAR_MAX];
-        Scanner codeInput = new Scanner(new File(codeFilename));
-        while (codeInput.hasNextLine()) {
-            int character = Integer.parseInt(codeInput.nextLine());
-            codes[character] = codeInput.nextLine();
-        }
-        codeInput.close();
+        HuffmanEncoder encoder = code.encoder();
 
         if (debugShortFile) {
             shortFilename = basename + ".debug";
@@ -64,111 +92,211 @@ public class HuffmanCompressor {
             shortFilename = basename + ".short";
         }
 
-        FileInputStream input = new FileInputStream(filename);
-        OutputStream output = new FileOutputStream(shortFilename);
-        if (!debugShortFile) {
-            output = new CharToBitOutputStream(output);
+        if (blockFormat) {
+            compressBlocks(encoder);
+            encoded(start);
+            return;
         }
 
-        int curr = input.read();
-        while (curr != -1) {
-            String code = codes[curr];
-            if (code != null) {
-                for (int i = 0; i < code.length(); i += 1) {
-                    output.write(code.charAt(i));
+        InputStream input = new FileInputStream(filename);
+        if (debugShortFile) {
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(shortFilename));
+            int curr = input.read();
+            while (curr != -1) {
+                if (encoder.hasCode(curr)) {
+                    long code = encoder.code(curr);
+                    for (int i = 0; i < encoder.length(curr); i += 1) {
+                        output.write('0' + (int) ((code >>> i) & 1));
+                    }
+                    curr = input.read();
+                } else {
+                    checkMissingCode(curr, input.read() == -1);
+                    curr = -1;
                 }
-                curr = input.read();
-            } else {
-                // Error if code is missing and not a terminating line feed (0x0a followed by -1)
-                if (!(curr == 0x0a && input.read() == -1)) {
-                    System.out.println("   Missing code for " + curr + " ('" + (char) curr + "')!");
-                    System.exit(1);
+            }
+            output.close();
+        } else {
+            // The code header is followed by a byte holding the number of padding
+            // bits at the end, which is only known once everything has been written
+            FileChannel output = FileChannel.open(Paths.get(shortFilename), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            code.writeHeader(header);
+            header.write(0);
+            output.write(ByteBuffer.wrap(header.toByteArray()));
+            BitWriter writer = new BitWriter(output);
+            byte[] buffer = new byte[BitWriter.DEFAULT_BUFFER_SIZE];
+            int count = input.read(buffer);
+            while (count != -1) {
+                int encoded = encoder.encode(buffer, 0, count, writer);
+                if (encoded < count) {
+                    boolean last = encoded == count - 1 && input.read() == -1;
+                    checkMissingCode(buffer[encoded] & 0xFF, last);
+                    count = -1;
+                } else {
+                    count = input.read(buffer);
                 }
-                curr = -1;
             }
+            int padding = writer.finish();
+            output.write(ByteBuffer.wrap(new byte[] {(byte) padding}), header.size() - 1);
+            output.close();
         }
         input.close();
-        output.close();
+        encoded(start);
         System.out.println("   Compressed contents to " + shortFilename + "!");
 
         System.out.println("...Done compressing the text file!");
     }
 
+    private void compressBlocks(HuffmanEncoder encoder) throws IOException {
+        // Leave out a terminating line feed that has no code, as compress() does
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        long length = file.length();
+        if (length > 0) {
+            file.seek(length - 1);
+            if (file.read() == 0x0a && !encoder.hasCode(0x0a)) {
+                length--;
+            }
+        }
+        file.close();
+
+        InputStream input = new FileInputStream(filename);
+        OutputStream output = new FileOutputStream(shortFilename);
+        // The code for the whole file is stored once; blocks whose bytes it
+        // suits badly get a code of their own or are stored as they are
+        HuffmanBlockCodec codec = new HuffmanBlockCodec(HuffmanBlockCodec.DEFAULT_BLOCK_SIZE,
+                ForkJoinPool.commonPool(), interleaved);
+        codec.compress(code, input, length, output);
+        input.close();
+        output.close();
+        System.out.println("   Compressed contents to " + shortFilename + " in parallel blocks!");
+
+        System.out.println("...Done compressing the text file!");
+    }
+
+    // Behavior: Exits with an error unless the character without a code is a
+    // terminating line feed (0x0a as the last character of the file)
+    private void checkMissingCode(int curr, boolean last) {
+        if (!(curr == 0x0a && last)) {
+            System.out.println("   Missing code for " + curr + " ('" + (char) curr + "')!");
+            System.exit(1);
+        }
+    }
+
     public void decompress() throws IOException {
         System.out.println("Decompressing " + shortFilename + " using the Huffman Code...");
 
-        Scanner codeInput = new Scanner(new File(codeFilename));
-        HuffmanCode t = new HuffmanCode(codeInput);
-        codeInput.close();
-        System.out.println("   Constructed a new HuffmanCode(Scanner input)!");
+        outputFilename = basename + ".new";
+        long start = System.nanoTime();
+        long misses = 0;
+        if (debugShortFile) {
+            Scanner codeInput = new Scanner(new File(codeFilename));
+            HuffmanCode t = new HuffmanCode(codeInput);
+            codeInput.close();
+            System.out.println("   Constructed a new HuffmanCode(Scanner input)!");
 
-        InputStream input = new FileInputStream(shortFilename);
-        if (!debugShortFile) {
-            input = new BitToCharInputStream(input);
+            Scanner scanner = new Scanner(new FileInputStream(shortFilename)).useDelimiter("");
+            PrintStream output = new PrintStream(new File(outputFilename));
+            t.translate(scanner, output);
+            scanner.close();
+            output.close();
+        } else if (blockFormat) {
+            InputStream input = new FileInputStream(shortFilename);
+            OutputStream output = new FileOutputStream(outputFilename);
+            HuffmanBlockCodec codec = new HuffmanBlockCodec();
+            codec.decompress(input, output);
+            misses = codec.tableMisses();
+            input.close();
+            output.close();
+            System.out.println("   Decoded the blocks in parallel!");
+        } else {
+            misses = decompressChannels();
+        }
+        long decodedBytes = new File(outputFilename).length();
+        phaseCompleted(HuffmanMetricsListener.Phase.DECODE, start, new File(shortFilename).length(), decodedBytes);
+        for (HuffmanMetricsListener listener : listeners) {
+            listener.decoded(decodedBytes, misses);
         }
-        Scanner scanner = new Scanner(input).useDelimiter("");
-        outputFilename = basename + ".new";
-        PrintStream output = new PrintStream(new File(outputFilename));
-        t.translate(scanner, output);
-        scanner.close();
-        output.close();
         System.out.println("   Decompressed contents to output.txt!");
         System.out.println("...Done decompressing the short file!");
     }
 
-    // The CharToBitOutputStream and BitToCharInputStream classes provide the ability to write and
-    // read individual bits to a file in a compact form. One major limitation of this approach is
-    // that the resulting file will always have a number of bits that is a multiple of 8. Whatever
-    // bits are output to the file are padded at the end with 0's so the total is a multiple of 8.
+    // Decodes the binary short file between file channels: the header is parsed from
+    // the first bytes read, and the bits after it are decoded through direct buffers
+    // straight into the output channel. Returns how many symbols missed the table.
+    private long decompressChannels() throws IOException {
+        FileChannel input = FileChannel.open(Paths.get(shortFilename), StandardOpenOption.READ);
+        FileChannel output = FileChannel.open(Paths.get(outputFilename), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            // The header and the padding byte fit in HEADER_BITMAP_BYTES + CHAR_MAX + 1 bytes
+            ByteBuffer start = ByteBuffer.allocate(HuffmanCode.HEADER_BITMAP_BYTES + CHAR_MAX + 1);
+            int read = 0;
+            while (start.hasRemaining() && read != -1) {
+                // A read may return fewer bytes than asked for, so keep reading until
+                // the buffer is full or the file ends
+                read = input.read(start);
+            }
+            ByteArrayInputStream header = new ByteArrayInputStream(start.array(), 0, start.position());
+            HuffmanCode t = new HuffmanCode(header);
+            System.out.println("   Constructed a new HuffmanCode(InputStream input) from the header!");
 
-    private static class CharToBitOutputStream extends OutputStream {
-        private OutputStream output;
-        private List<Integer> buffer;
-        private int currentByte;  // a buffer used to build up next set of bits
-        private int numBits;      // how many bits are currently in the buffer
+            int padding = header.read();
+            if (padding == -1) {
+                return 0;
+            }
+            long position = start.position() - header.available();
+            long bitLength = (input.size() - position) * 8 - padding;
+            return t.decoder().decode(input.position(position), bitLength, output);
+        } finally {
+            input.close();
+            output.close();
+        }
+    }
 
-        private static final int BYTE_SIZE = 8; // bits per byte
+    // Reports the end of the encode phase that began at the given time
+    private void encoded(long start) {
+        phaseCompleted(HuffmanMetricsListener.Phase.ENCODE, start, new File(filename).length(),
+                new File(shortFilename).length());
+    }
 
-        // post: constructs a CharToBitOutputStream sending output to the given stream
-        public CharToBitOutputStream(OutputStream output) {
-            this.buffer = new ArrayList<Integer>();
-            this.output = output;
+    // Reports a phase that began at the given time (from System.nanoTime)
+    private void phaseCompleted(HuffmanMetricsListener.Phase phase, long start, long bytesIn, long bytesOut) {
+        long nanos = System.nanoTime() - start;
+        for (HuffmanMetricsListener listener : listeners) {
+            listener.phaseCompleted(phase, nanos, bytesIn, bytesOut);
         }
+    }
 
-        // post: writes given char bit '0' or '1' to output as a true bit
-        public void write(int bit) {
-            if (bit != '0' && bit != '1') {
-                throw new IllegalArgumentException("Illegal bit: " + bit);
-            }
-            bit = bit - '0';
-            currentByte += bit << numBits;
-            numBits += 1;
-            if (numBits == BYTE_SIZE) {
-                buffer.add(currentByte);
-                numBits = 0;
-                currentByte = 0;
-            }
+    // Reports the statistics of the code just built for the given frequencies:
+    // the bits per symbol it achieves against the entropy, -sum(p * log2(p))
+    private void codeBuilt(long[] frequencies) {
+        if (listeners.isEmpty()) {
+            return;
         }
-
-        // post: output is closed
-        public void close() throws IOException {
-            int remaining = BYTE_SIZE - numBits;
-            if (remaining == 8) {
-                remaining = 0;
-            } 
-            // Flush the last byte (if there is one)
-            if (remaining > 0) {
-                buffer.add(currentByte);
-            }
-            // Prepend the output with the number of missing bits from the end
-            output.write(remaining);
-            for (int b : buffer) {
-                output.write(b);
+        long total = 0;
+        for (long frequency : frequencies) {
+            total += frequency;
+        }
+        double entropy = 0;
+        for (long frequency : frequencies) {
+            if (frequency > 0) {
+                double p = (double) frequency / total;
+                entropy -= p * Math.log(p) / Math.log(2);
             }
-            output.close();
+        }
+        double bitsPerSymbol = total == 0 ? 0 : (double) code.compressedBits(frequencies) / total;
+        for (HuffmanMetricsListener listener : listeners) {
+            listener.codeBuilt(code.maxCodeLength(), bitsPerSymbol, entropy);
         }
     }
 
+    // Compressed files are written by BitWriter and hold a byte with the number of padding bits
+    // followed by the packed bits. The BitToCharInputStream class provides the ability to read
+    // individual bits back from such a file. One major limitation of this approach is that the
+    // resulting file will always have a number of bits that is a multiple of 8. Whatever bits
+    // are output to the file are padded at the end with 0's so the total is a multiple of 8.
+
     private static class BitToCharInputStream extends InputStream {
         private InputStream input;
         private int currentByte;     // current set of bits (buffer)
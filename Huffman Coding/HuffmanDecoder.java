@@ -0,0 +1,695 @@
+// This class decodes Huffman bit streams using lookup tables built from
+// a code tree instead of walking the tree one bit at a time
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class HuffmanDecoder {
+    public static final int DEFAULT_TABLE_BITS = 11;
+    public static final int MAX_TABLE_BITS = 15;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Size of the direct buffers used when decoding between channels
+    private static final int CHANNEL_BUFFER_SIZE = 1 << 20;
+
+    // Reads 8 bytes of an array as a little-endian long in one access
+    private static final VarHandle LITTLE_ENDIAN =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // Each table entry packs up to two decoded symbols:
+    // bits 0-7 first symbol, bits 8-15 second symbol,
+    // bits 16-17 number of symbols, bits 18-22 number of bits used
+    // by all of them, bits 23-27 number of bits used by the first
+    private static final int COUNT_SHIFT = 16;
+    private static final int USED_SHIFT = 18;
+    private static final int FIRST_SHIFT = 23;
+    private static final int LENGTH_MASK = 31;
+
+    private HuffmanCode.HuffmanNode root;  // null for a decoder built from code lengths
+    private int tableBits;
+    private int[] table;
+
+    // For a decoder built from code lengths: the symbols in canonical order
+    // and how many codes there are of each length, for decoding codes
+    // longer than the table
+    private int[] sortedSymbols;
+    private int[] lengthCounts;
+
+    // Parameters: root of a Huffman code tree
+    // Behavior: Builds a decoder with the default table width
+    public HuffmanDecoder(HuffmanCode.HuffmanNode root) {
+        this(root, DEFAULT_TABLE_BITS);
+    }
+
+    // Parameters: root of a Huffman code tree and the number of bits
+    // each lookup table entry is indexed by
+    // Behavior: Builds a decoder whose table resolves every code of at most
+    // tableBits bits in a single lookup. Longer codes fall back to the tree.
+    public HuffmanDecoder(HuffmanCode.HuffmanNode root, int tableBits) {
+        if (tableBits < 1 || tableBits > 24) {
+            throw new IllegalArgumentException("Illegal table width: " + tableBits);
+        }
+        this.root = root;
+        this.tableBits = tableBits;
+        this.table = new int[1 << tableBits];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = buildEntry(i);
+        }
+    }
+
+    // Parameters: code length of every symbol (0 for symbols without a code)
+    // of a canonical code and the number of bits each table entry is indexed by
+    // Behavior: Builds the decoder for the canonical code with the given
+    // lengths straight from the arrays, without building a tree: every code
+    // of at most tableBits bits is written into all the entries it prefixes,
+    // then each entry with room left is extended with the symbol that follows.
+    // Throws an IllegalArgumentException if the lengths are not a prefix code.
+    public HuffmanDecoder(int[] lengths, int tableBits) {
+        if (tableBits < 1 || tableBits > 24) {
+            throw new IllegalArgumentException("Illegal table width: " + tableBits);
+        }
+        long[] codes = HuffmanEncoder.canonicalCodes(lengths);
+        this.tableBits = tableBits;
+        this.table = new int[1 << tableBits];
+        this.lengthCounts = new int[HuffmanEncoder.MAX_CODE_LENGTH + 1];
+        int symbolCount = 0;
+        for (int length : lengths) {
+            if (length > 0) {
+                lengthCounts[length]++;
+                symbolCount++;
+            }
+        }
+        int[] starts = new int[HuffmanEncoder.MAX_CODE_LENGTH + 1];
+        for (int length = 1; length < starts.length - 1; length++) {
+            starts[length + 1] = starts[length] + lengthCounts[length];
+        }
+        sortedSymbols = new int[symbolCount];
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            int length = lengths[symbol];
+            if (length > 0) {
+                sortedSymbols[starts[length]++] = symbol;
+                if (length <= tableBits) {
+                    int entry = symbol | 1 << COUNT_SHIFT | length << USED_SHIFT | length << FIRST_SHIFT;
+                    for (int i = (int) codes[symbol]; i < table.length; i += 1 << length) {
+                        table[i] = entry;
+                    }
+                }
+            }
+        }
+        // The bits after an entry's first code index a smaller entry, which
+        // still holds a single symbol when working down from the top
+        for (int i = table.length - 1; i >= 0; i--) {
+            int entry = table[i];
+            if (entry != 0) {
+                int first = (entry >>> FIRST_SHIFT) & LENGTH_MASK;
+                int next = table[i >>> first];
+                int second = (next >>> FIRST_SHIFT) & LENGTH_MASK;
+                if (next != 0 && first + second <= tableBits) {
+                    table[i] = (entry & 0xFF) | (next & 0xFF) << 8 | 2 << COUNT_SHIFT
+                            | (first + second) << USED_SHIFT | first << FIRST_SHIFT;
+                }
+            }
+        }
+    }
+
+    // Parameters: length in bits of the longest code
+    // Behavior: Returns the table width to use for a code: wide enough to
+    // resolve every code in one lookup when the codes are short enough for
+    // that to be affordable, and the default width otherwise
+    public static int tableBits(int maxLength) {
+        if (maxLength <= MAX_TABLE_BITS) {
+            return Math.max(DEFAULT_TABLE_BITS, maxLength);
+        }
+        return DEFAULT_TABLE_BITS;
+    }
+
+    // Parameters: the next tableBits bits of input, first bit in the lowest position
+    // Behavior: Walks the tree over the given bits and returns the table entry
+    // for as many whole symbols (up to two) as fit inside them
+    private int buildEntry(int index) {
+        if (isLeaf(root)) {
+            return root.data | 1 << COUNT_SHIFT | 1 << USED_SHIFT | 1 << FIRST_SHIFT;
+        }
+        int entry = 0;
+        int count = 0;
+        int used = 0;
+        int first = 0;
+        HuffmanCode.HuffmanNode node = root;
+        for (int bit = 0; bit < tableBits && count < 2 && node != null; bit++) {
+            node = ((index >>> bit) & 1) == 0 ? node.left : node.right;
+            if (node != null && isLeaf(node)) {
+                entry |= node.data << (8 * count);
+                count++;
+                used = bit + 1;
+                if (count == 1) {
+                    first = used;
+                }
+                node = root;
+            }
+        }
+        return entry | count << COUNT_SHIFT | used << USED_SHIFT | first << FIRST_SHIFT;
+    }
+
+    // Parameters: input holding a stream written by HuffmanCompressor
+    // (a padding count byte followed by the packed bits) and an output
+    // to write the decoded bytes to
+    // Behavior: Decodes the whole input, resolving one or two symbols per
+    // table lookup and walking the tree only for codes longer than the table
+    public void decode(InputStream input, OutputStream output) throws IOException {
+        int padding = input.read();
+        if (padding == -1) {
+            return;
+        }
+        BitSource source = new BitSource(input, padding);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int size = decode(source, buffer, 0, buffer.length);
+        while (size > 0) {
+            output.write(buffer, 0, size);
+            size = decode(source, buffer, 0, buffer.length);
+        }
+        output.flush();
+    }
+
+    // Parameters: channel positioned at packed bits, the exact number of bits
+    // it holds from there and a channel to write the decoded bytes to
+    // Behavior: Decodes all the bits and returns how many symbols missed the
+    // table. The bits are read into one direct buffer and the symbols are written
+    // into another, which goes straight to the output channel, so no objects
+    // are created per symbol and the bytes are never copied into arrays.
+    public long decode(ReadableByteChannel input, long bitLength, WritableByteChannel output) throws IOException {
+        BitSource source = new BitSource(input, bitLength);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE);
+        int size = decode(source, buffer);
+        while (size > 0) {
+            buffer.limit(size);
+            while (buffer.hasRemaining()) {
+                output.write(buffer);
+            }
+            buffer.clear();
+            size = decode(source, buffer);
+        }
+        return source.misses;
+    }
+
+    // Parameters: array holding packed bits, where they start, how many bytes
+    // they take, the exact number of bits, the array to decode into, where
+    // to start and how many symbols the bits hold
+    // Behavior: Decodes exactly count symbols from the given bits and returns
+    // how many of them missed the table. Throws an IOException if the bits
+    // do not hold exactly that many symbols.
+    public long decode(byte[] input, int offset, int length, long bitLength,
+                       byte[] output, int outputOffset, int count) throws IOException {
+        BitSource source = new BitSource(input, offset, length, bitLength);
+        int end = decode(source, output, outputOffset, outputOffset + count);
+        source.fill();
+        if (end != outputOffset + count || source.available() != 0) {
+            throw new IOException("Corrupt Huffman block");
+        }
+        return source.misses;
+    }
+
+    // Parameters: array holding the packed bits of several streams one after
+    // another, where the first starts, the exact number of bits in each
+    // stream, the array to decode into, where to start and how many symbols
+    // the streams hold together
+    // Behavior: Decodes symbols that were dealt out to the streams in turn
+    // (symbol i in stream i % streams). Four streams are decoded in the same
+    // loop so that their table lookups do not wait on each other. Returns how
+    // many symbols missed the table. Throws an IOException if the bits do not
+    // hold exactly count symbols.
+    public long decodeInterleaved(byte[] input, int offset, long[] bitLengths,
+                                  byte[] output, int outputOffset, int count) throws IOException {
+        int streams = bitLengths.length;
+        BitSource[] sources = new BitSource[streams];
+        int[] next = new int[streams];   // where each stream's next symbol goes
+        for (int i = 0; i < streams; i++) {
+            int length = (int) ((bitLengths[i] + 7) / 8);
+            sources[i] = new BitSource(input, offset, length, bitLengths[i]);
+            offset += length;
+            next[i] = outputOffset + i;
+        }
+        int end = outputOffset + count;
+        boolean done = false;
+        while (!done) {
+            if (streams == 4) {
+                decodeFour(sources, output, next, end);
+            }
+            // Whatever the fast loop cannot take (long codes and the last
+            // few symbols) is decoded one symbol per stream at a time
+            done = true;
+            for (int i = 0; i < streams; i++) {
+                if (next[i] < end) {
+                    output[next[i]] = (byte) next(sources[i]);
+                    next[i] += streams;
+                    done = false;
+                }
+            }
+        }
+        long misses = 0;
+        for (BitSource source : sources) {
+            source.fill();
+            if (source.available() != 0) {
+                throw new IOException("Corrupt Huffman block");
+            }
+            misses += source.misses;
+        }
+        return misses;
+    }
+
+    // Parameters: sources of four interleaved streams, the array to decode
+    // into, where each stream's next symbol goes and where the output ends
+    // Behavior: Decodes the four streams side by side while every stream has
+    // at least 8 bytes and 4 symbols left. Each round refills all four bit
+    // buffers with one 8-byte read, then makes two table lookups per stream,
+    // each giving one or two symbols. Keeping the streams in local variables
+    // lets the lookups of different streams overlap. Stops early at a code
+    // longer than the table, leaving it to the caller.
+    private void decodeFour(BitSource[] sources, byte[] output, int[] next, int end) {
+        byte[] buffer = sources[0].buffer;
+        int[] table = this.table;
+        int mask = (1 << tableBits) - 1;
+        long bits0 = sources[0].bits, bits1 = sources[1].bits, bits2 = sources[2].bits, bits3 = sources[3].bits;
+        int count0 = sources[0].count, count1 = sources[1].count;
+        int count2 = sources[2].count, count3 = sources[3].count;
+        int position0 = sources[0].position, position1 = sources[1].position;
+        int position2 = sources[2].position, position3 = sources[3].position;
+        int out0 = next[0], out1 = next[1], out2 = next[2], out3 = next[3];
+        long start0 = bitsRead(sources[0]), start1 = bitsRead(sources[1]);
+        long start2 = bitsRead(sources[2]), start3 = bitsRead(sources[3]);
+        // A refill leaves at least 56 bits, enough for two lookups of at most
+        // 24 bits; an entry of 0 means the code is longer than the table
+        while (position0 + 8 <= sources[0].limit && position1 + 8 <= sources[1].limit
+                && position2 + 8 <= sources[2].limit && position3 + 8 <= sources[3].limit
+                && out0 + 12 < end && out1 + 12 < end && out2 + 12 < end && out3 + 12 < end) {
+            bits0 |= (long) LITTLE_ENDIAN.get(buffer, position0) << count0;
+            position0 += (63 - count0) >>> 3;
+            count0 |= 56;
+            bits1 |= (long) LITTLE_ENDIAN.get(buffer, position1) << count1;
+            position1 += (63 - count1) >>> 3;
+            count1 |= 56;
+            bits2 |= (long) LITTLE_ENDIAN.get(buffer, position2) << count2;
+            position2 += (63 - count2) >>> 3;
+            count2 |= 56;
+            bits3 |= (long) LITTLE_ENDIAN.get(buffer, position3) << count3;
+            position3 += (63 - count3) >>> 3;
+            count3 |= 56;
+
+            int entry0 = table[(int) bits0 & mask];
+            int entry1 = table[(int) bits1 & mask];
+            int entry2 = table[(int) bits2 & mask];
+            int entry3 = table[(int) bits3 & mask];
+            if (entry0 == 0 || entry1 == 0 || entry2 == 0 || entry3 == 0) {
+                break;
+            }
+            output[out0] = (byte) entry0;
+            output[out0 + 4] = (byte) (entry0 >>> 8);
+            out0 += 4 * ((entry0 >>> COUNT_SHIFT) & 3);
+            int used0 = (entry0 >>> USED_SHIFT) & LENGTH_MASK;
+            bits0 >>>= used0;
+            count0 -= used0;
+            output[out1] = (byte) entry1;
+            output[out1 + 4] = (byte) (entry1 >>> 8);
+            out1 += 4 * ((entry1 >>> COUNT_SHIFT) & 3);
+            int used1 = (entry1 >>> USED_SHIFT) & LENGTH_MASK;
+            bits1 >>>= used1;
+            count1 -= used1;
+            output[out2] = (byte) entry2;
+            output[out2 + 4] = (byte) (entry2 >>> 8);
+            out2 += 4 * ((entry2 >>> COUNT_SHIFT) & 3);
+            int used2 = (entry2 >>> USED_SHIFT) & LENGTH_MASK;
+            bits2 >>>= used2;
+            count2 -= used2;
+            output[out3] = (byte) entry3;
+            output[out3 + 4] = (byte) (entry3 >>> 8);
+            out3 += 4 * ((entry3 >>> COUNT_SHIFT) & 3);
+            int used3 = (entry3 >>> USED_SHIFT) & LENGTH_MASK;
+            bits3 >>>= used3;
+            count3 -= used3;
+
+            entry0 = table[(int) bits0 & mask];
+            entry1 = table[(int) bits1 & mask];
+            entry2 = table[(int) bits2 & mask];
+            entry3 = table[(int) bits3 & mask];
+            if (entry0 == 0 || entry1 == 0 || entry2 == 0 || entry3 == 0) {
+                break;
+            }
+            output[out0] = (byte) entry0;
+            output[out0 + 4] = (byte) (entry0 >>> 8);
+            out0 += 4 * ((entry0 >>> COUNT_SHIFT) & 3);
+            used0 = (entry0 >>> USED_SHIFT) & LENGTH_MASK;
+            bits0 >>>= used0;
+            count0 -= used0;
+            output[out1] = (byte) entry1;
+            output[out1 + 4] = (byte) (entry1 >>> 8);
+            out1 += 4 * ((entry1 >>> COUNT_SHIFT) & 3);
+            used1 = (entry1 >>> USED_SHIFT) & LENGTH_MASK;
+            bits1 >>>= used1;
+            count1 -= used1;
+            output[out2] = (byte) entry2;
+            output[out2 + 4] = (byte) (entry2 >>> 8);
+            out2 += 4 * ((entry2 >>> COUNT_SHIFT) & 3);
+            used2 = (entry2 >>> USED_SHIFT) & LENGTH_MASK;
+            bits2 >>>= used2;
+            count2 -= used2;
+            output[out3] = (byte) entry3;
+            output[out3 + 4] = (byte) (entry3 >>> 8);
+            out3 += 4 * ((entry3 >>> COUNT_SHIFT) & 3);
+            used3 = (entry3 >>> USED_SHIFT) & LENGTH_MASK;
+            bits3 >>>= used3;
+            count3 -= used3;
+        }
+        restore(sources[0], bits0, count0, position0, start0);
+        restore(sources[1], bits1, count1, position1, start1);
+        restore(sources[2], bits2, count2, position2, start2);
+        restore(sources[3], bits3, count3, position3, start3);
+        next[0] = out0;
+        next[1] = out1;
+        next[2] = out2;
+        next[3] = out3;
+    }
+
+    // Behavior: Returns how many bits of the source have been read into its
+    // buffer, consumed or not
+    private static long bitsRead(BitSource source) {
+        return (long) source.position * 8;
+    }
+
+    // Behavior: Puts the state of the fast loop back into the source, which
+    // has now read the bytes up to position and has count bits buffered
+    private static void restore(BitSource source, long bits, int count, int position, long start) {
+        long consumed = (long) position * 8 - start - (count - source.count);
+        source.remaining -= consumed;
+        source.bits = bits & ((1L << count) - 1);
+        source.count = count;
+        source.position = position;
+    }
+
+    // Parameters: source of bits positioned at the start of a code
+    // Behavior: Decodes one symbol with a single table lookup, walking the
+    // tree only for long codes and near the end of the bits
+    private int next(BitSource source) throws IOException {
+        if (source.count < tableBits) {
+            source.fill();
+        }
+        if (source.available() >= tableBits) {
+            int entry = table[(int) source.bits & ((1 << tableBits) - 1)];
+            int first = (entry >>> FIRST_SHIFT) & LENGTH_MASK;
+            if (first > 0) {
+                source.consume(first);
+                return entry & 0xFF;
+            }
+        }
+        return walk(source);
+    }
+
+    // Parameters: source of bits and buffer to decode into
+    // Behavior: Decodes symbols from the start of the buffer until it is
+    // full or the bits run out and returns how many were decoded. Writes
+    // with absolute puts, leaving the buffer's position alone.
+    private int decode(BitSource source, ByteBuffer output) throws IOException {
+        int mask = (1 << tableBits) - 1;
+        int end = output.capacity();
+        int size = 0;
+        while (size < end) {
+            if (source.count < tableBits) {
+                source.fill();
+            }
+            long available = source.available();
+            if (available == 0) {
+                break;
+            }
+            if (available >= tableBits) {
+                int entry = table[(int) source.bits & mask];
+                int count = (entry >>> COUNT_SHIFT) & 3;
+                if (count == 2 && size == end - 1) {
+                    // Only the first of the two symbols fits in the last slot
+                    output.put(size++, (byte) entry);
+                    source.consume((entry >>> FIRST_SHIFT) & LENGTH_MASK);
+                    continue;
+                }
+                if (count > 0) {
+                    output.put(size++, (byte) entry);
+                    if (count == 2) {
+                        output.put(size++, (byte) (entry >>> 8));
+                    }
+                    source.consume((entry >>> USED_SHIFT) & LENGTH_MASK);
+                    continue;
+                }
+            }
+            output.put(size++, (byte) walk(source));
+        }
+        return size;
+    }
+
+    // Parameters: source of bits, array to decode into and the range to fill
+    // Behavior: Decodes symbols until the range is full or the bits run out
+    // and returns the index after the last decoded symbol
+    private int decode(BitSource source, byte[] output, int offset, int end) throws IOException {
+        int mask = (1 << tableBits) - 1;
+        int size = offset;
+        while (size < end) {
+            if (source.count < tableBits) {
+                source.fill();
+            }
+            long available = source.available();
+            if (available == 0) {
+                break;
+            }
+            if (available >= tableBits) {
+                int entry = table[(int) source.bits & mask];
+                int count = (entry >>> COUNT_SHIFT) & 3;
+                if (count == 2 && size == end - 1) {
+                    // Only the first of the two symbols fits in the last slot
+                    output[size++] = (byte) entry;
+                    source.consume((entry >>> FIRST_SHIFT) & LENGTH_MASK);
+                    continue;
+                }
+                if (count > 0) {
+                    output[size++] = (byte) entry;
+                    if (count == 2) {
+                        output[size++] = (byte) (entry >>> 8);
+                    }
+                    source.consume((entry >>> USED_SHIFT) & LENGTH_MASK);
+                    continue;
+                }
+            }
+            output[size++] = (byte) walk(source);
+        }
+        return size;
+    }
+
+    // Parameters: decoder to use after each previous byte value (the first
+    // byte is decoded as if it followed a 0), input holding the packed bits,
+    // output to write to and how many bytes to decode
+    // Behavior: Decodes an order-1 context-modelled stream, switching tables
+    // for every symbol. Each lookup resolves one symbol since the next one
+    // may use a different table.
+    public static void decode(HuffmanDecoder[] byContext, InputStream input, OutputStream output,
+                              long count) throws IOException {
+        BitSource source = new BitSource(input, 0);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int size = 0;
+        int context = 0;
+        for (long i = 0; i < count; i++) {
+            HuffmanDecoder decoder = byContext[context];
+            if (source.count < decoder.tableBits) {
+                source.fill();
+            }
+            int symbol = -1;
+            if (source.available() >= decoder.tableBits) {
+                int entry = decoder.table[(int) source.bits & ((1 << decoder.tableBits) - 1)];
+                int first = (entry >>> FIRST_SHIFT) & LENGTH_MASK;
+                if (first > 0) {
+                    symbol = entry & 0xFF;
+                    source.consume(first);
+                }
+            }
+            if (symbol == -1) {
+                symbol = decoder.walk(source);
+            }
+            if (size == buffer.length) {
+                output.write(buffer, 0, size);
+                size = 0;
+            }
+            buffer[size++] = (byte) symbol;
+            context = symbol;
+        }
+        output.write(buffer, 0, size);
+        output.flush();
+    }
+
+    // Parameters: source of bits positioned at the start of a code
+    // Behavior: Decodes one symbol by walking the tree a bit at a time. Used
+    // for codes longer than the table and for the last few bits of a stream.
+    private int walk(BitSource source) throws IOException {
+        source.misses++;
+        if (root == null) {
+            return walkCanonical(source);
+        }
+        HuffmanCode.HuffmanNode node = root;
+        do {
+            if (source.available() == 0) {
+                source.fill();
+                if (source.available() == 0) {
+                    throw new IOException("Truncated Huffman stream");
+                }
+            }
+            int bit = (int) source.bits & 1;
+            source.consume(1);
+            if (!isLeaf(root)) {
+                node = bit == 0 ? node.left : node.right;
+                if (node == null) {
+                    throw new IOException("Invalid Huffman code in stream");
+                }
+            }
+        } while (!isLeaf(node));
+        return node.data;
+    }
+
+    // Parameters: source of bits positioned at the start of a code
+    // Behavior: Decodes one symbol of a canonical code a bit at a time: the
+    // codes of each length are consecutive numbers, so after every bit the
+    // code read so far either falls in the range of its length or is the
+    // prefix of a longer code.
+    private int walkCanonical(BitSource source) throws IOException {
+        long code = 0;
+        long first = 0;   // first code of the current length
+        int index = 0;    // position of that code in sortedSymbols
+        for (int length = 1; length < lengthCounts.length; length++) {
+            if (source.available() == 0) {
+                source.fill();
+                if (source.available() == 0) {
+                    throw new IOException("Truncated Huffman stream");
+                }
+            }
+            code |= source.bits & 1;
+            source.consume(1);
+            int count = lengthCounts[length];
+            if (code - first < count) {
+                return sortedSymbols[index + (int) (code - first)];
+            }
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw new IOException("Invalid Huffman code in stream");
+    }
+
+    private static boolean isLeaf(HuffmanCode.HuffmanNode node) {
+        return node.left == null && node.right == null;
+    }
+
+    // Reads bits least significant first into a 64-bit buffer, reading the
+    // underlying stream in large chunks. The number of valid bits becomes
+    // known once the end of the input is reached.
+    private static class BitSource {
+        private InputStream input;
+        private ReadableByteChannel channel;
+        private ByteBuffer direct;  // bytes read from channel, between position and limit
+        private byte[] buffer;
+        private int position;
+        private int limit;
+        private boolean atEnd;
+        private int padding;
+        private long remaining;  // valid bits left, exact once atEnd is set
+
+        private long bits;       // buffered bits, next bit in the lowest position
+        private int count;       // how many bits are currently buffered
+        private long misses;     // symbols read from this source without the table
+
+        // post: constructs a BitSource reading the bits that follow the padding byte
+        public BitSource(InputStream input, int padding) {
+            this.input = input;
+            this.padding = padding;
+            this.buffer = new byte[BUFFER_SIZE];
+            this.remaining = Long.MAX_VALUE;
+        }
+
+        // post: constructs a BitSource reading bitLength bits from the given
+        //       bytes of an array, which is used directly rather than copied
+        public BitSource(byte[] buffer, int offset, int length, long bitLength) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.limit = offset + length;
+            this.atEnd = true;
+            this.remaining = bitLength;
+        }
+
+        // post: constructs a BitSource reading bitLength bits from the
+        //       channel through a direct buffer
+        public BitSource(ReadableByteChannel channel, long bitLength) {
+            this.channel = channel;
+            this.direct = ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            this.direct.limit(0);
+            this.remaining = bitLength;
+        }
+
+        // post: tops up the bit buffer to at least 57 bits if input allows
+        public void fill() throws IOException {
+            if (direct != null) {
+                fillDirect();
+                return;
+            }
+            if (!atEnd && limit - position < 8) {
+                readChunk();
+            }
+            while (count <= 56 && position < limit) {
+                bits |= (buffer[position++] & 0xFFL) << count;
+                count += 8;
+            }
+        }
+
+        // post: returns how many buffered bits are real data rather than padding
+        public long available() {
+            return Math.min(count, remaining);
+        }
+
+        // post: drops the given number of bits from the front of the buffer
+        public void consume(int n) {
+            bits >>>= n;
+            count -= n;
+            remaining -= n;
+        }
+
+        // post: tops up the bit buffer from the direct buffer, with one
+        //       8-byte read when at least 8 bytes are buffered
+        private void fillDirect() throws IOException {
+            if (!atEnd && direct.remaining() < 8) {
+                direct.compact();
+                while (direct.hasRemaining() && !atEnd) {
+                    atEnd = channel.read(direct) == -1;
+                }
+                direct.flip();
+            }
+            if (count <= 56 && direct.remaining() >= 8) {
+                int at = direct.position();
+                bits |= direct.getLong(at) << count;
+                direct.position(at + ((63 - count) >>> 3));
+                count |= 56;
+            }
+            while (count <= 56 && direct.hasRemaining()) {
+                bits |= (direct.get() & 0xFFL) << count;
+                count += 8;
+            }
+        }
+
+        // post: refills the byte buffer, keeping any unread bytes
+        private void readChunk() throws IOException {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+            while (limit < buffer.length) {
+                int n = input.read(buffer, limit, buffer.length - limit);
+                if (n == -1) {
+                    atEnd = true;
+                    remaining = (long) limit * 8 + count - padding;
+                    return;
+                }
+                limit += n;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+// This class holds the codes of a Huffman tree as primitive
+// (bits, length) pairs and encodes bytes through a BitWriter
+
+import java.io.*;
+
+public class HuffmanEncoder {
+    public static final int MAX_CODE_LENGTH = 64;
+
+    private long[] codes;    // code bits, first bit in the lowest position
+    private int[] lengths;   // code length in bits, 0 if the symbol has no code
+
+    // Parameters: root of a Huffman code tree
+    // Behavior: Collects the code of every leaf in the tree. A tree that is a
+    // single leaf gets the one-bit code 0 so its symbols can still be counted.
+    public HuffmanEncoder(HuffmanCode.HuffmanNode root) {
+        codes = new long[HuffmanCompressor.CHAR_MAX];
+        lengths = new int[HuffmanCompressor.CHAR_MAX];
+        if (root != null && root.left == null && root.right == null) {
+            lengths[root.data] = 1;
+        } else {
+            collect(root, 0, 0);
+        }
+    }
+
+    // Parameters: code length of every symbol, 0 for symbols without a code
+    // Behavior: Builds the canonical code with the given lengths (see
+    // canonicalCodes) straight from the array, without a tree
+    public HuffmanEncoder(int[] lengths) {
+        this.codes = canonicalCodes(lengths);
+        this.lengths = new int[HuffmanCompressor.CHAR_MAX];
+        System.arraycopy(lengths, 0, this.lengths, 0, lengths.length);
+    }
+
+    // Parameters: code length of every symbol, 0 for symbols without a code
+    // Behavior: Returns the canonical code of every symbol, first bit lowest.
+    // Symbols are ordered by code length and then by value, and each gets the
+    // next binary number of its length, as in HuffmanCode.fromCodeLengths.
+    // Throws an IllegalArgumentException if the lengths are not a prefix code.
+    static long[] canonicalCodes(int[] lengths) {
+        if (lengths.length > HuffmanCompressor.CHAR_MAX) {
+            throw new IllegalArgumentException("Too many symbols: " + lengths.length);
+        }
+        int[] lengthCounts = new int[MAX_CODE_LENGTH + 1];
+        for (int length : lengths) {
+            if (length < 0 || length > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Illegal code length: " + length);
+            }
+            lengthCounts[length]++;
+        }
+        lengthCounts[0] = 0;
+        // firstCodes[n] is the code of the first symbol of length n
+        long[] firstCodes = new long[MAX_CODE_LENGTH + 1];
+        long code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            firstCodes[length] = code;
+            if (length < 64 && lengthCounts[length] > 0 && code + lengthCounts[length] > 1L << length) {
+                throw new IllegalArgumentException("Code lengths do not form a prefix code");
+            }
+        }
+        long[] codes = new long[HuffmanCompressor.CHAR_MAX];
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] > 0) {
+                codes[i] = Long.reverse(firstCodes[lengths[i]]++) >>> (64 - lengths[i]);
+            }
+        }
+        return codes;
+    }
+
+    // Parameters: current node, code bits so far and their length
+    // Behavior: Records the code of every leaf under the given node
+    private void collect(HuffmanCode.HuffmanNode root, long code, int length) {
+        if (root != null) {
+            if (root.left == null && root.right == null) {
+                if (length > MAX_CODE_LENGTH) {
+                    throw new IllegalStateException("Code for " + root.data + " is longer than "
+                            + MAX_CODE_LENGTH + " bits");
+                }
+                codes[root.data] = code;
+                lengths[root.data] = length;
+            } else {
+                collect(root.left, code, length + 1);
+                collect(root.right, length < 64 ? code | 1L << length : code, length + 1);
+            }
+        }
+    }
+
+    // Behavior: Returns whether the given symbol has a code
+    public boolean hasCode(int symbol) {
+        return lengths[symbol] > 0;
+    }
+
+    // Behavior: Returns the code bits of the given symbol, first bit lowest
+    public long code(int symbol) {
+        return codes[symbol];
+    }
+
+    // Behavior: Returns the length in bits of the code for the given symbol
+    public int length(int symbol) {
+        return lengths[symbol];
+    }
+
+    // Parameters: bytes to encode, where to start, how many bytes and
+    // the writer to send the bits to
+    // Behavior: Encodes the bytes in order and returns how many were encoded.
+    // Stops early at the first byte without a code.
+    public int encode(byte[] data, int offset, int length, BitWriter output) throws IOException {
+        for (int i = 0; i < length; i++) {
+            int symbol = data[offset + i] & 0xFF;
+            int size = lengths[symbol];
+            if (size == 0) {
+                return i;
+            }
+            output.write(codes[symbol], size);
+        }
+        return length;
+    }
+
+    // Parameters: bytes to encode, where to start, how many bytes and the
+    // writers of the streams to deal them out to
+    // Behavior: Encodes byte i into stream i % outputs.length and returns
+    // how many bytes were encoded. Stops early at the first byte without a code.
+    public int encodeInterleaved(byte[] data, int offset, int length, BitWriter[] outputs) throws IOException {
+        for (int i = 0; i < length; i++) {
+            int symbol = data[offset + i] & 0xFF;
+            int size = lengths[symbol];
+            if (size == 0) {
+                return i;
+            }
+            outputs[i % outputs.length].write(codes[symbol], size);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,86 @@
+// This class turns the measurements reported to it into Java Flight Recorder
+// events, which show up in any JFR recording of the process
+// (for example with -XX:StartFlightRecording) under the Huffman category
+
+import jdk.jfr.*;
+
+public class HuffmanFlightRecorderListener implements HuffmanMetricsListener {
+    public void phaseCompleted(Phase phase, long nanos, long bytesIn, long bytesOut) {
+        PhaseEvent event = new PhaseEvent();
+        if (event.isEnabled()) {
+            event.phase = phase.name();
+            event.time = nanos;
+            event.bytesIn = bytesIn;
+            event.bytesOut = bytesOut;
+            event.commit();
+        }
+    }
+
+    public void codeBuilt(int maxCodeLength, double bitsPerSymbol, double entropy) {
+        CodeEvent event = new CodeEvent();
+        if (event.isEnabled()) {
+            event.maxCodeLength = maxCodeLength;
+            event.bitsPerSymbol = bitsPerSymbol;
+            event.entropy = entropy;
+            event.commit();
+        }
+    }
+
+    public void decoded(long symbols, long tableMisses) {
+        DecodeEvent event = new DecodeEvent();
+        if (event.isEnabled()) {
+            event.symbols = symbols;
+            event.tableMisses = tableMisses;
+            event.commit();
+        }
+    }
+
+    @Name("dsa.huffman.Phase")
+    @Label("Huffman Phase")
+    @Category("Huffman")
+    @Description("One phase of compressing or decompressing a file")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+    }
+
+    @Name("dsa.huffman.Code")
+    @Label("Huffman Code")
+    @Category("Huffman")
+    @Description("A Huffman code built for a file")
+    static class CodeEvent extends Event {
+        @Label("Max Code Length")
+        int maxCodeLength;
+
+        @Label("Bits per Symbol")
+        double bitsPerSymbol;
+
+        @Label("Entropy")
+        @Description("Shannon entropy of the histogram in bits per symbol")
+        double entropy;
+    }
+
+    @Name("dsa.huffman.Decode")
+    @Label("Huffman Decode")
+    @Category("Huffman")
+    @Description("Symbols decoded and how many missed the decode table")
+    static class DecodeEvent extends Event {
+        @Label("Symbols")
+        long symbols;
+
+        @Label("Table Misses")
+        long tableMisses;
+    }
+}
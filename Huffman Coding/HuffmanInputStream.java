@@ -0,0 +1,84 @@
+// This class decompresses block data written by HuffmanOutputStream or
+// HuffmanBlockCodec, decoding one block at a time as it is read
+
+import java.io.*;
+
+public class HuffmanInputStream extends InputStream {
+    private DataInputStream input;
+    private HuffmanDecoder shared;
+    private HuffmanDecoder previous;  // code of the last block that had its own
+    private byte[] block;       // decoded bytes of the current block
+    private int position;       // next byte of block to return
+    private boolean atEnd;
+
+    // post: constructs a HuffmanInputStream reading compressed blocks from
+    //       input and reads the file header. Never reads past the end of the
+    //       compressed data, so more data may follow it on input.
+    public HuffmanInputStream(InputStream input) throws IOException {
+        this.input = new DataInputStream(input);
+        this.shared = HuffmanBlockCodec.readFileHeader(this.input);
+        this.block = new byte[0];
+    }
+
+    // post: returns the next byte, or -1 at the end of the data
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    // post: reads up to len bytes into the array starting at off and returns
+    //       how many were read, or -1 at the end of the data. Only decodes
+    //       another block when the current one is used up.
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    // post: returns how many bytes can be read without decoding another block
+    public int available() {
+        return block.length - position;
+    }
+
+    // post: input is closed
+    public void close() throws IOException {
+        input.close();
+    }
+
+    // post: decodes the next block if the current one is used up, returning
+    //       false at the end of the data. Reads the index after the last
+    //       block so that input is left just past the compressed data.
+    private boolean fill() throws IOException {
+        while (position == block.length) {
+            if (atEnd) {
+                return false;
+            }
+            int mode = input.readUnsignedByte();
+            if (mode == HuffmanBlockCodec.END) {
+                HuffmanBlockCodec.skipIndex(input);
+                atEnd = true;
+            } else {
+                HuffmanBlockCodec.CompressedBlock compressed =
+                        HuffmanBlockCodec.readBlock(input, mode, shared, previous);
+                if (compressed.hasTable()) {
+                    previous = compressed.decoder();
+                }
+                block = compressed.decode();
+                position = 0;
+            }
+        }
+        return true;
+    }
+}
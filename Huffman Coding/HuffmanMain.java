@@ -3,6 +3,8 @@ import java.util.*;
 
 public class HuffmanMain {
     public static final boolean DEBUG = false;
+    public static final boolean BLOCKS = false;
+    public static final boolean INTERLEAVED = false;
 
     public static void main(String[] args) throws IOException {
         Scanner console = new Scanner(System.in);
@@ -15,17 +17,20 @@ public class HuffmanMain {
         } while (!filename.endsWith(".txt"));
         System.out.println();
 
-        HuffmanCompressor compressor = new HuffmanCompressor(filename, DEBUG);
+        HuffmanCompressor compressor = new HuffmanCompressor(filename, DEBUG, BLOCKS, INTERLEAVED);
 
-        // Calls your HuffmanCode(int[]) constructor and save(PrintStream)
+        // Calls your HuffmanCode(long[], int) constructor (and save(PrintStream) when DEBUG is set)
         compressor.makeCode();
         System.out.println();
 
-        // Does not call your HuffmanCode program at all
+        // Calls writeHeader(OutputStream) to store the code in the short file
         compressor.compress();
         System.out.println();
 
-        // Calls your HuffmanCode(Scanner) constructor and translate(Scanner, PrintStream)
+        // Calls your HuffmanCode(InputStream) constructor on the header and decodes the bits
+        // between file channels with HuffmanDecoder.decode(ReadableByteChannel, long, WritableByteChannel)
+        // (HuffmanCode(Scanner) and translate(Scanner, PrintStream) when DEBUG is set, and
+        // HuffmanBlockCodec.decompress when BLOCKS is set)
         compressor.decompress();
 	}
 }
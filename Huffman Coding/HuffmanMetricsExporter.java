@@ -0,0 +1,122 @@
+// This class keeps running totals of the measurements reported to it and
+// publishes them as a JMX MBean, so they can be read by JConsole or any
+// JMX-based monitoring without attaching a profiler
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+public class HuffmanMetricsExporter implements HuffmanMetricsListener, HuffmanMetricsMXBean {
+    public static final String DEFAULT_NAME = "dsa.huffman:type=HuffmanMetrics";
+
+    private Map<Phase, LongAdder> times;
+    private Map<Phase, LongAdder> bytesIn;
+    private Map<Phase, LongAdder> bytesOut;
+    private LongAdder decodedSymbols;
+    private LongAdder tableMisses;
+    private volatile int lastMaxCodeLength;
+    private volatile double lastBitsPerSymbol;
+    private volatile double lastEntropy;
+
+    // post: constructs an exporter with all totals at 0
+    public HuffmanMetricsExporter() {
+        times = new EnumMap<Phase, LongAdder>(Phase.class);
+        bytesIn = new EnumMap<Phase, LongAdder>(Phase.class);
+        bytesOut = new EnumMap<Phase, LongAdder>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            times.put(phase, new LongAdder());
+            bytesIn.put(phase, new LongAdder());
+            bytesOut.put(phase, new LongAdder());
+        }
+        decodedSymbols = new LongAdder();
+        tableMisses = new LongAdder();
+    }
+
+    // post: registers this exporter with the platform MBean server under
+    //       DEFAULT_NAME and returns the name
+    public ObjectName register() throws JMException {
+        ObjectName name = new ObjectName(DEFAULT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    public void phaseCompleted(Phase phase, long nanos, long bytesIn, long bytesOut) {
+        times.get(phase).add(nanos);
+        this.bytesIn.get(phase).add(bytesIn);
+        this.bytesOut.get(phase).add(bytesOut);
+    }
+
+    public void codeBuilt(int maxCodeLength, double bitsPerSymbol, double entropy) {
+        lastMaxCodeLength = maxCodeLength;
+        lastBitsPerSymbol = bitsPerSymbol;
+        lastEntropy = entropy;
+    }
+
+    public void decoded(long symbols, long tableMisses) {
+        decodedSymbols.add(symbols);
+        this.tableMisses.add(tableMisses);
+    }
+
+    public long getCountTime() {
+        return times.get(Phase.COUNT).sum();
+    }
+
+    public long getBuildTime() {
+        return times.get(Phase.BUILD).sum();
+    }
+
+    public long getEncodeTime() {
+        return times.get(Phase.ENCODE).sum();
+    }
+
+    public long getDecodeTime() {
+        return times.get(Phase.DECODE).sum();
+    }
+
+    public long getEncodeBytesIn() {
+        return bytesIn.get(Phase.ENCODE).sum();
+    }
+
+    public long getEncodeBytesOut() {
+        return bytesOut.get(Phase.ENCODE).sum();
+    }
+
+    public long getDecodeBytesIn() {
+        return bytesIn.get(Phase.DECODE).sum();
+    }
+
+    public long getDecodeBytesOut() {
+        return bytesOut.get(Phase.DECODE).sum();
+    }
+
+    public double getCompressionRatio() {
+        long in = getEncodeBytesIn();
+        return in == 0 ? 0 : (double) getEncodeBytesOut() / in;
+    }
+
+    public int getLastMaxCodeLength() {
+        return lastMaxCodeLength;
+    }
+
+    public double getLastBitsPerSymbol() {
+        return lastBitsPerSymbol;
+    }
+
+    public double getLastEntropy() {
+        return lastEntropy;
+    }
+
+    public long getDecodedSymbols() {
+        return decodedSymbols.sum();
+    }
+
+    public long getTableMisses() {
+        return tableMisses.sum();
+    }
+
+    public double getTableMissRate() {
+        long symbols = getDecodedSymbols();
+        return symbols == 0 ? 0 : (double) getTableMisses() / symbols;
+    }
+}
@@ -0,0 +1,21 @@
+// This interface is notified with measurements as HuffmanCompressor makes a
+// code, compresses and decompresses a file, so the numbers can be exported
+// to monitoring (see HuffmanMetricsExporter and HuffmanFlightRecorderListener)
+
+public interface HuffmanMetricsListener {
+    // Phases of compressing and decompressing a file
+    enum Phase { COUNT, BUILD, ENCODE, DECODE }
+
+    // post: called after each phase with the time it took in nanoseconds
+    //       and how many bytes it read and wrote
+    void phaseCompleted(Phase phase, long nanos, long bytesIn, long bytesOut);
+
+    // post: called after a code is built with its longest code length, the
+    //       average bits per symbol it gives the data it was built from and
+    //       the Shannon entropy of that data's histogram in bits per symbol
+    void codeBuilt(int maxCodeLength, double bitsPerSymbol, double entropy);
+
+    // post: called after decoding with the number of symbols decoded and how
+    //       many of them the decode table could not resolve in one lookup
+    void decoded(long symbols, long tableMisses);
+}
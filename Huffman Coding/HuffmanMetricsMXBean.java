@@ -0,0 +1,36 @@
+// This interface is the JMX view of the totals kept by HuffmanMetricsExporter.
+// Times are in nanoseconds and sizes in bytes.
+
+public interface HuffmanMetricsMXBean {
+    long getCountTime();
+
+    long getBuildTime();
+
+    long getEncodeTime();
+
+    long getDecodeTime();
+
+    long getEncodeBytesIn();
+
+    long getEncodeBytesOut();
+
+    long getDecodeBytesIn();
+
+    long getDecodeBytesOut();
+
+    // compressed size over original size, over everything encoded so far
+    double getCompressionRatio();
+
+    int getLastMaxCodeLength();
+
+    double getLastBitsPerSymbol();
+
+    double getLastEntropy();
+
+    long getDecodedSymbols();
+
+    long getTableMisses();
+
+    // share of decoded symbols that missed the decode table
+    double getTableMissRate();
+}
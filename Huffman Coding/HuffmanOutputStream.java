@@ -0,0 +1,121 @@
+// This class compresses everything written to it in memory, collecting the
+// bytes into blocks and storing each block in the mode its histogram says
+// is smallest. The result is a block file as written by HuffmanBlockCodec,
+// so it can also be read back with HuffmanBlockCodec or HuffmanBlockReader.
+
+import java.io.*;
+import java.util.*;
+
+public class HuffmanOutputStream extends OutputStream {
+    private DataOutputStream output;
+    private HuffmanBlockCodec.BlockSelector selector;
+    private byte[] block;
+    private int size;                    // how many bytes of block are filled
+    private long length;                 // original bytes written so far
+    private long position;               // compressed bytes written so far
+    private List<Long> originalOffsets;
+    private List<Long> compressedOffsets;
+    private boolean finished;
+
+    // post: constructs a HuffmanOutputStream sending compressed blocks to
+    //       output, with codes built from the blocks' own bytes
+    public HuffmanOutputStream(OutputStream output) throws IOException {
+        this(output, null, HuffmanBlockCodec.DEFAULT_BLOCK_SIZE);
+    }
+
+    // pre : blockSize > 0
+    // post: constructs a HuffmanOutputStream sending compressed blocks of at
+    //       most blockSize bytes to output. The given code (if not null) is
+    //       stored once and used by every block it suits better than a code
+    //       of the block's own. Writes the file header.
+    public HuffmanOutputStream(OutputStream output, HuffmanCode code, int blockSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Illegal block size: " + blockSize);
+        }
+        this.output = new DataOutputStream(output);
+        this.selector = new HuffmanBlockCodec.BlockSelector(code, false);
+        this.block = new byte[blockSize];
+        this.originalOffsets = new ArrayList<Long>();
+        this.compressedOffsets = new ArrayList<Long>();
+        HuffmanBlockCodec.writeFileHeader(this.output, blockSize, code);
+        position = this.output.size();
+    }
+
+    // post: buffers the given byte, compressing the block once it is full
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[size++] = (byte) b;
+        if (size == block.length) {
+            writeBlock();
+        }
+    }
+
+    // post: buffers len bytes of the array starting at off, compressing
+    //       every block that fills up
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            int count = Math.min(len, block.length - size);
+            System.arraycopy(b, off, block, size, count);
+            size += count;
+            off += count;
+            len -= count;
+            if (size == block.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    // post: compresses the bytes buffered so far as a (possibly short) block
+    //       and flushes output, so the reader can decode everything written
+    //       without waiting for more
+    public void flush() throws IOException {
+        ensureOpen();
+        if (size > 0) {
+            writeBlock();
+        }
+        output.flush();
+    }
+
+    // post: compresses the remaining bytes and writes the end marker and the
+    //       block index without closing output. Nothing more can be written.
+    public void finish() throws IOException {
+        if (!finished) {
+            if (size > 0) {
+                writeBlock();
+            }
+            HuffmanBlockCodec.writeIndex(output, originalOffsets, compressedOffsets, length, position);
+            output.flush();
+            finished = true;
+        }
+    }
+
+    // post: finishes the compressed data and closes output
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            output.close();
+        }
+    }
+
+    // post: encodes the buffered block, writes it and empties the buffer
+    private void writeBlock() throws IOException {
+        byte[] encoded = HuffmanBlockCodec.encodeBlock(selector.select(HuffmanBlockCodec.plan(block, size)));
+        output.write(encoded);
+        originalOffsets.add(length);
+        compressedOffsets.add(position);
+        length += size;
+        position += encoded.length;
+        size = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream finished");
+        }
+    }
+}
@@ -0,0 +1,219 @@
+// This class computes Huffman code lengths using only flat arrays that it
+// allocates once, so a new table can be built for every block without
+// creating node objects or garbage. It sorts the symbols with a radix
+// (counting) sort and merges them with the linear-time two-queue method.
+
+public class HuffmanTableBuilder {
+    // Longest code length this builder can limit codes to
+    public static final int MAX_LIMIT = 32;
+
+    private long[] frequencies;   // byte counts for codeLengths(byte[], ...)
+    private int[] symbols;        // symbols with a code, least frequent first
+    private int[] sortBuffer;     // scratch space for the radix sort
+    private int[] digitCounts;    // per-digit counts for the radix sort
+    private long[] weights;       // leaves 0..n-1 (sorted), then merged nodes
+    private int[] parent;         // parent of each node, later its depth
+    private boolean[][] packages; // package-merge: which list items are packages
+    private long[] levelWeights;  // package-merge: weights of two adjacent lists
+    private long[] nextLevelWeights;
+    private int[] lengths;        // the result, indexed by symbol
+
+    // Where the two queues of the merge currently start, and where the leaves end
+    private int nextLeaf;
+    private int nextNode;
+    private int leafCount;
+
+    // post: constructs a builder, allocating all of its working space
+    public HuffmanTableBuilder() {
+        int symbolCount = HuffmanCompressor.CHAR_MAX;
+        frequencies = new long[symbolCount];
+        symbols = new int[symbolCount];
+        sortBuffer = new int[symbolCount];
+        digitCounts = new int[256];
+        weights = new long[2 * symbolCount];
+        parent = new int[2 * symbolCount];
+        packages = new boolean[MAX_LIMIT][2 * symbolCount];
+        levelWeights = new long[2 * symbolCount];
+        nextLevelWeights = new long[2 * symbolCount];
+        lengths = new int[symbolCount];
+    }
+
+    // pre : 0 <= offset, 0 <= length, offset + length <= data.length and
+    //       1 <= maxLength <= MAX_LIMIT
+    // post: counts the given bytes and returns code lengths for them as
+    //       codeLengths(long[], int) does
+    public int[] codeLengths(byte[] data, int offset, int length, int maxLength) {
+        for (int i = 0; i < frequencies.length; i++) {
+            frequencies[i] = 0;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            frequencies[data[i] & 0xFF]++;
+        }
+        return codeLengths(frequencies, maxLength);
+    }
+
+    // pre : frequencies has at most CHAR_MAX entries, at least one of them
+    //       positive (throws IllegalArgumentException otherwise), and
+    //       1 <= maxLength <= MAX_LIMIT
+    // post: returns the code length of every symbol (0 for symbols with a
+    //       frequency of 0) of a Huffman code in which no code is longer than
+    //       maxLength. A single symbol gets length 1. The returned array
+    //       belongs to the builder and is overwritten by the next call.
+    public int[] codeLengths(long[] frequencies, int maxLength) {
+        if (maxLength < 1 || maxLength > MAX_LIMIT) {
+            throw new IllegalArgumentException("Illegal maximum code length: " + maxLength);
+        }
+        if (frequencies.length > symbols.length) {
+            throw new IllegalArgumentException("Too many symbols: " + frequencies.length);
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = 0;
+        }
+        int n = sortSymbols(frequencies);
+        if (n == 0) {
+            throw new IllegalArgumentException("No frequencies given");
+        } else if (n == 1) {
+            lengths[symbols[0]] = 1;
+            return lengths;
+        } else if (n > 1L << maxLength) {
+            throw new IllegalArgumentException(n + " symbols do not fit in codes of " + maxLength + " bits");
+        }
+        merge(n);
+        int deepest = 0;
+        for (int i = 0; i < n; i++) {
+            deepest = Math.max(deepest, parent[i]);
+        }
+        if (deepest <= maxLength) {
+            for (int i = 0; i < n; i++) {
+                lengths[symbols[i]] = parent[i];
+            }
+        } else {
+            limitLengths(n, maxLength);
+        }
+        return lengths;
+    }
+
+    // post: stores the symbols with a positive frequency in symbols[0..n-1],
+    //       least frequent first (ties by symbol value), copies their
+    //       frequencies into weights[0..n-1] and returns n. Sorts with one
+    //       stable counting sort per byte of the largest frequency.
+    private int sortSymbols(long[] frequencies) {
+        int n = 0;
+        long all = 0;
+        for (int i = 0; i < frequencies.length; i++) {
+            if (frequencies[i] > 0) {
+                symbols[n++] = i;
+                all |= frequencies[i];
+            } else if (frequencies[i] < 0) {
+                throw new IllegalArgumentException("Negative frequency for " + i);
+            }
+        }
+        for (int shift = 0; shift < 64 && all >>> shift != 0; shift += 8) {
+            for (int i = 0; i < digitCounts.length; i++) {
+                digitCounts[i] = 0;
+            }
+            for (int i = 0; i < n; i++) {
+                digitCounts[(int) (frequencies[symbols[i]] >>> shift) & 0xFF]++;
+            }
+            int start = 0;
+            for (int i = 0; i < digitCounts.length; i++) {
+                int count = digitCounts[i];
+                digitCounts[i] = start;
+                start += count;
+            }
+            for (int i = 0; i < n; i++) {
+                int symbol = symbols[i];
+                sortBuffer[digitCounts[(int) (frequencies[symbol] >>> shift) & 0xFF]++] = symbol;
+            }
+            int[] swap = symbols;
+            symbols = sortBuffer;
+            sortBuffer = swap;
+        }
+        for (int i = 0; i < n; i++) {
+            weights[i] = frequencies[symbols[i]];
+        }
+        return n;
+    }
+
+    // pre : the n sorted leaves are in weights[0..n-1], n >= 2
+    // post: builds the Huffman tree in weights and parent and then replaces
+    //       each parent[i] with the depth of node i. The leaves and the merged
+    //       nodes (which are created in order of weight) form two sorted
+    //       queues, so the two lightest nodes are always at their fronts.
+    private void merge(int n) {
+        nextLeaf = 0;
+        nextNode = n;
+        leafCount = n;
+        int root = 2 * n - 2;
+        for (int node = n; node <= root; node++) {
+            int one = lightest(node);
+            int two = lightest(node);
+            weights[node] = weights[one] + weights[two];
+            parent[one] = node;
+            parent[two] = node;
+        }
+        // Parents always come after their children, so working down from
+        // the root every parent's depth is known before its children need it
+        parent[root] = 0;
+        for (int node = root - 1; node >= 0; node--) {
+            parent[node] = parent[parent[node]] + 1;
+        }
+    }
+
+    // pre : end is the number of nodes created so far
+    // post: removes and returns the lighter front of the two queues
+    private int lightest(int end) {
+        if (nextLeaf < leafCount && (nextNode >= end || weights[nextLeaf] <= weights[nextNode])) {
+            return nextLeaf++;
+        }
+        return nextNode++;
+    }
+
+    // pre : the n sorted leaves are in weights[0..n-1], n <= 2^maxLength
+    // post: stores optimal lengths of at most maxLength in lengths using
+    //       package-merge, as HuffmanCode does but in the builder's arrays.
+    //       Each level's list merges the leaves with pairs ("packages") of
+    //       the list below, in order of weight; taking the 2n - 2 lightest
+    //       items of the top list and following the packages down, a
+    //       symbol's code length is the number of levels it is taken from.
+    private void limitLengths(int n, int maxLength) {
+        long[] previous = levelWeights;
+        long[] current = nextLevelWeights;
+        int previousSize = 0;
+        for (int level = 0; level < maxLength; level++) {
+            int pairs = previousSize / 2;
+            int size = n + pairs;
+            boolean[] packaged = packages[level];
+            int leaf = 0;
+            int pair = 0;
+            for (int i = 0; i < size; i++) {
+                long pairWeight = pair < pairs ? previous[2 * pair] + previous[2 * pair + 1] : Long.MAX_VALUE;
+                if (leaf < n && weights[leaf] <= pairWeight) {
+                    current[i] = weights[leaf++];
+                    packaged[i] = false;
+                } else {
+                    current[i] = pairWeight;
+                    packaged[i] = true;
+                    pair++;
+                }
+            }
+            long[] swap = previous;
+            previous = current;
+            current = swap;
+            previousSize = size;
+        }
+        int selected = 2 * n - 2;
+        for (int level = maxLength - 1; level >= 0 && selected > 0; level--) {
+            int leaves = 0;
+            int chosen = 0;
+            for (int i = 0; i < selected; i++) {
+                if (packages[level][i]) {
+                    chosen++;
+                } else {
+                    lengths[symbols[leaves++]]++;
+                }
+            }
+            selected = 2 * chosen;
+        }
+    }
+}
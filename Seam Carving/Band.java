@@ -0,0 +1,42 @@
+package seamcarving;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fills the cells from..to-1 of some work on a fork/join pool, split in
+ * halves until the bands are maxSize cells or fewer, so each band holds
+ * between half maxSize and maxSize cells.
+ */
+final class Band extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /** Fills the cells from..to-1 of the work a band is part of. */
+    interface Cells {
+        void fill(int from, int to);
+    }
+
+    private final Cells cells;
+    private final int from;
+    private final int to;
+    private final int maxSize;
+
+    Band(Cells cells, int from, int to, int maxSize) {
+        this.cells = cells;
+        this.from = from;
+        this.to = to;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= maxSize)
+        {
+            cells.fill(from, to);
+        }
+        else
+        {
+            int middle = (from + to) >>> 1;
+            invokeAll(new Band(cells, from, middle, maxSize), new Band(cells, middle, to, maxSize));
+        }
+    }
+}
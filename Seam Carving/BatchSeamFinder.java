@@ -0,0 +1,267 @@
+package seamcarving;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds many seams at once from one pass of the dynamic program, as an
+ * approximation of removing them one at a time. The energies are in a flat
+ * row-major buffer, with pixel (x, y) at {@code y * stride + x}.
+ *
+ * After the pass, the cells of the last line are taken in order of their
+ * cumulative cost, and from each a seam is traced back to the first line.
+ * Each step goes to the cheapest of the three cells before it that no seam
+ * has taken yet, so a seam that would run into an earlier one is pushed
+ * beside it instead, and is dropped if all three are taken. The first seam
+ * traced is the one {@link DynamicProgrammingSeamFinder} finds, but the seams
+ * are then sorted line by line so that they do not cross, which spreads its
+ * pixels over several of the returned seams: only the set of pixels removed
+ * is sure to contain it. Later seams use costs computed before the earlier
+ * seams were taken, so they can cost more than the seams found by removing
+ * one at a time; {@link #compareVertical} measures how much more.
+ */
+public class BatchSeamFinder {
+    /**
+     * Returns up to k vertical seams that share no pixel, each one x per row,
+     * ordered so that every seam is left of the next one in every row. Fewer
+     * than k seams are returned when no more can be traced around the others.
+     * Their pixels include those of the seam DynamicProgrammingSeamFinder
+     * finds, but no one returned seam need be that seam.
+     */
+    public List<List<Integer>> findVerticalSeams(double[] energies, int width, int height, int stride, int k) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        return findSeams(energies, height, width, stride, 1, k);
+    }
+
+    /**
+     * Returns up to k horizontal seams that share no pixel, each one y per
+     * column, ordered so that every seam is above the next one in every column.
+     */
+    public List<List<Integer>> findHorizontalSeams(double[] energies, int width, int height, int stride, int k) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        return findSeams(energies, width, height, 1, stride, k);
+    }
+
+    // finds the seams of a dynamic program over steps lines of the given
+    // length, where cell i of line s is at s * stepStride + i * cellStride
+    private static List<List<Integer>> findSeams(double[] energies, int steps, int length, int stepStride,
+                                                 int cellStride, int k) {
+        if (k < 1 || k >= length)
+        {
+            throw new IllegalArgumentException("Cannot find " + k + " seams across " + length + " pixels");
+        }
+        // costs of line s at s * length; taken cells are set to infinity
+        double[] costs = new double[steps * length];
+        for (int i = 0; i < length; i++)
+        {
+            costs[i] = energies[i * cellStride];
+        }
+        for (int s = 1; s < steps; s++)
+        {
+            int line = s * length;
+            for (int i = 0; i < length; i++)
+            {
+                costs[line + i] = cheapest(costs, line - length, length, i) + energies[s * stepStride + i * cellStride];
+            }
+        }
+
+        // the cells of the last line, cheapest first
+        int last = (steps - 1) * length;
+        Integer[] order = new Integer[length];
+        for (int i = 0; i < length; i++)
+        {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(costs[last + a], costs[last + b]));
+
+        List<int[]> seams = new ArrayList<>(k);
+        int[] path = new int[steps];
+        for (int n = 0; n < length && seams.size() < k; n++)
+        {
+            if (trace(costs, steps, length, order[n], path))
+            {
+                for (int s = 0; s < steps; s++)
+                {
+                    costs[s * length + path[s]] = Double.POSITIVE_INFINITY;
+                }
+                seams.add(path.clone());
+            }
+        }
+        return uncross(seams, steps);
+    }
+
+    // the lowest cost of cell i's three neighbors in the line starting at
+    // offset, with the ties of DynamicProgrammingSeamFinder
+    private static double cheapest(double[] costs, int offset, int length, int i) {
+        double min = costs[offset + i];
+        if (i > 0 && costs[offset + i - 1] < min)
+        {
+            min = costs[offset + i - 1];
+        }
+        if (i < length - 1 && costs[offset + i + 1] < min)
+        {
+            min = costs[offset + i + 1];
+        }
+        return min;
+    }
+
+    // traces a seam back from cell end of the last line through cells not yet
+    // taken into path, returning false if it runs into taken cells
+    private static boolean trace(double[] costs, int steps, int length, int end, int[] path) {
+        int i = end;
+        if (costs[(steps - 1) * length + i] == Double.POSITIVE_INFINITY)
+        {
+            return false;
+        }
+        path[steps - 1] = i;
+        for (int s = steps - 2; s >= 0; s--)
+        {
+            int offset = s * length;
+            int next = i;
+            if (i > 0 && costs[offset + i - 1] < costs[offset + next])
+            {
+                next = i - 1;
+            }
+            if (i < length - 1 && costs[offset + i + 1] < costs[offset + next])
+            {
+                next = i + 1;
+            }
+            if (costs[offset + next] == Double.POSITIVE_INFINITY)
+            {
+                return false;
+            }
+            i = next;
+            path[s] = i;
+        }
+        return true;
+    }
+
+    // sorts the cells of every line so that seam j takes the j-th lowest
+    // index. Sorting keeps each seam's steps within one cell, and the seams
+    // take the same pixels, though no longer seam by seam.
+    private static List<List<Integer>> uncross(List<int[]> seams, int steps) {
+        int count = seams.size();
+        int[] line = new int[count];
+        List<List<Integer>> result = new ArrayList<>(count);
+        for (int j = 0; j < count; j++)
+        {
+            result.add(new ArrayList<>(steps));
+        }
+        for (int s = 0; s < steps; s++)
+        {
+            for (int j = 0; j < count; j++)
+            {
+                line[j] = seams.get(j)[s];
+            }
+            Arrays.sort(line);
+            for (int j = 0; j < count; j++)
+            {
+                result.get(j).add(line[j]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compares one pass of findVerticalSeams for k seams with removing the
+     * same number of seams one at a time with an {@link IncrementalSeamCarver}
+     * on the same (unchanging) energies.
+     */
+    public static Quality compareVertical(double[] energies, int width, int height, int stride, int k) {
+        List<List<Integer>> batch = new BatchSeamFinder().findVerticalSeams(energies, width, height, stride, k);
+        boolean[] removed = new boolean[height * width];
+        double batchEnergy = 0;
+        for (List<Integer> seam : batch)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                batchEnergy += energies[y * stride + seam.get(y)];
+                removed[y * width + seam.get(y)] = true;
+            }
+        }
+
+        // the carver shifts its copy of the energies, so the original x of
+        // every cell is shifted along with it
+        double[] copy = new double[width * height];
+        int[] original = new int[width * height];
+        for (int y = 0; y < height; y++)
+        {
+            System.arraycopy(energies, y * stride, copy, y * width, width);
+            for (int x = 0; x < width; x++)
+            {
+                original[y * width + x] = x;
+            }
+        }
+        IncrementalSeamCarver carver = new IncrementalSeamCarver(copy, width, height, width);
+        double sequentialEnergy = 0;
+        int shared = 0;
+        for (int n = 0; n < batch.size(); n++)
+        {
+            int currentWidth = carver.width();
+            List<Integer> seam = carver.removeVerticalSeam();
+            for (int y = 0; y < height; y++)
+            {
+                int start = y * width + seam.get(y);
+                int x = original[start];
+                sequentialEnergy += energies[y * stride + x];
+                if (removed[y * width + x])
+                {
+                    shared++;
+                }
+                System.arraycopy(original, start + 1, original, start, currentWidth - 1 - seam.get(y));
+            }
+        }
+        return new Quality(batch.size(), batchEnergy, sequentialEnergy,
+            (double) shared / ((long) batch.size() * height));
+    }
+
+    /**
+     * How close a batch of seams is to the seams removed one at a time.
+     */
+    public static class Quality {
+        private final int seams;
+        private final double batchEnergy;
+        private final double sequentialEnergy;
+        private final double overlap;
+
+        Quality(int seams, double batchEnergy, double sequentialEnergy, double overlap) {
+            this.seams = seams;
+            this.batchEnergy = batchEnergy;
+            this.sequentialEnergy = sequentialEnergy;
+            this.overlap = overlap;
+        }
+
+        /** The number of seams found by the batch, which were compared. */
+        public int seams() {
+            return seams;
+        }
+
+        /** The total energy of the pixels removed by the batch. */
+        public double batchEnergy() {
+            return batchEnergy;
+        }
+
+        /** The total energy of the pixels removed one seam at a time. */
+        public double sequentialEnergy() {
+            return sequentialEnergy;
+        }
+
+        /** batchEnergy / sequentialEnergy: 1 is as good as removing one at a time. */
+        public double ratio() {
+            return sequentialEnergy == 0 ? (batchEnergy == 0 ? 1 : Double.POSITIVE_INFINITY)
+                : batchEnergy / sequentialEnergy;
+        }
+
+        /** The fraction of the pixels removed one at a time that the batch removed too. */
+        public double overlap() {
+            return overlap;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d seams: energy %.4g vs %.4g (ratio %.4f), %.1f%% of pixels shared",
+                seams, batchEnergy, sequentialEnergy, ratio(), 100 * overlap);
+        }
+    }
+}
@@ -4,6 +4,7 @@ package seamcarving;
 import graphs.Edge;
 import graphs.Graph;
 import graphs.shortestpaths.DijkstraShortestPathFinder;
+import graphs.shortestpaths.GridShortestPathFinder;
 //import graphs.shortestpaths.ShortestPath;
 import graphs.shortestpaths.ShortestPathFinder;
 
@@ -15,11 +16,26 @@ import java.util.List;
 //import java.util.Map;
 import java.util.Objects;
 
-public class DijkstraSeamFinder implements SeamFinder {
+public class DijkstraSeamFinder implements FlatSeamFinder {
     private final ShortestPathFinder<Graph<MyVertex, Edge<MyVertex>>, MyVertex, Edge<MyVertex>> pathFinder;
+    private final GridShortestPathFinder gridFinder;
+    private final boolean useGraph;
 
     public DijkstraSeamFinder() {
+        this(false);
+    }
+
+    /**
+     * Creates a finder that searches the image as an implicit grid with a
+     * GridShortestPathFinder, or with useGraph as a general Graph of vertex and
+     * edge objects searched by createPathFinder(). The grid search creates
+     * almost no garbage; it keeps its arrays between calls, so a finder must
+     * not be shared between threads.
+     */
+    public DijkstraSeamFinder(boolean useGraph) {
         this.pathFinder = createPathFinder();
+        this.gridFinder = new GridShortestPathFinder();
+        this.useGraph = useGraph;
     }
 
     private static class MyVertex {
@@ -57,10 +73,14 @@ public class DijkstraSeamFinder implements SeamFinder {
         // Note: use "static" in the class header if it doesn't use any non-static fields
         // in the outer class. Otherwise, remove the static keyword.
         // fields
-        private double[][] picture;
+        private GridShortestPathFinder.Weights picture;
+        private int numRows;    // # of cols in actual image
+        private int numCols;    // # of rows in actual image
 
-        public MyGraph(double[][] energies) {
-            picture = energies; // energies[y][x]
+        public MyGraph(GridShortestPathFinder.Weights picture, int numRows, int numCols) {
+            this.picture = picture;
+            this.numRows = numRows;
+            this.numCols = numCols;
         }
 
         @Override
@@ -69,8 +89,6 @@ public class DijkstraSeamFinder implements SeamFinder {
             {
                 return Collections.emptyList();
             }
-            int numCols = picture[0].length;    // # of rows in actual image
-            int numRows = picture.length;       // # of cols in actual image
             Collection<Edge<MyVertex>> edges = new ArrayList<>();
             //MyVertex dummyStart = new MyVertex(-1, -1);
 
@@ -80,7 +98,7 @@ public class DijkstraSeamFinder implements SeamFinder {
                 for (int i = 0; i < numRows; i++)
                 {
                     MyVertex destination = new MyVertex(i, 0);
-                    edges.add(new Edge<>(current, destination, picture[i][0]));
+                    edges.add(new Edge<>(current, destination, picture.weight(i, 0)));
                 }
             }
             else if (current.col == numCols - 1)    // dummy end
@@ -91,25 +109,25 @@ public class DijkstraSeamFinder implements SeamFinder {
             else if (current.row == 0)
             {
                 MyVertex destination = new MyVertex(0, current.col + 1);
-                edges.add(new Edge<>(current, destination, picture[0][current.col + 1]));
+                edges.add(new Edge<>(current, destination, picture.weight(0, current.col + 1)));
                 destination = new MyVertex(1, current.col + 1);
-                edges.add(new Edge<>(current, destination, picture[1][current.col + 1]));
+                edges.add(new Edge<>(current, destination, picture.weight(1, current.col + 1)));
             }
             else if (current.row == numRows - 1)
             {
                 MyVertex destination = new MyVertex(numRows - 2, current.col + 1);
-                edges.add(new Edge<>(current, destination, picture[numRows - 2][current.col + 1]));
+                edges.add(new Edge<>(current, destination, picture.weight(numRows - 2, current.col + 1)));
                 destination = new MyVertex(numRows - 1, current.col + 1);
-                edges.add(new Edge<>(current, destination, picture[numRows - 1][current.col + 1]));
+                edges.add(new Edge<>(current, destination, picture.weight(numRows - 1, current.col + 1)));
             }
             else
             {
                 MyVertex destination = new MyVertex(current.row - 1, current.col + 1);
-                edges.add(new Edge<>(current, destination, picture[current.row - 1][current.col + 1]));
+                edges.add(new Edge<>(current, destination, picture.weight(current.row - 1, current.col + 1)));
                 destination = new MyVertex(current.row, current.col + 1);
-                edges.add(new Edge<>(current, destination, picture[current.row][current.col + 1]));
+                edges.add(new Edge<>(current, destination, picture.weight(current.row, current.col + 1)));
                 destination = new MyVertex(current.row + 1, current.col + 1);
-                edges.add(new Edge<>(current, destination, picture[current.row + 1][current.col + 1]));
+                edges.add(new Edge<>(current, destination, picture.weight(current.row + 1, current.col + 1)));
             }
             return edges;
         }
@@ -125,21 +143,48 @@ public class DijkstraSeamFinder implements SeamFinder {
 
     @Override
     public List<Integer> findHorizontalSeam(double[][] energies) {
-        double[][] transposed = new double[energies[0].length][energies.length];
-        for (int i = 0; i < energies.length; i++)
+        // reads the energies transposed instead of copying them
+        return seamHelper((row, col) -> energies[col][row], energies[0].length, energies.length);
+    }
+
+    @Override
+    public List<Integer> findVerticalSeam(double[] energies, int width, int height, int stride) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        return seamHelper((row, col) -> energies[col * stride + row], width, height);
+    }
+
+    @Override
+    public List<Integer> findHorizontalSeam(double[] energies, int width, int height, int stride) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        return seamHelper((row, col) -> energies[row * stride + col], height, width);
+    }
+
+    @Override
+    public List<Integer> findVerticalSeam(float[] energies, int width, int height, int stride) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        return seamHelper((row, col) -> energies[col * stride + row], width, height);
+    }
+
+    @Override
+    public List<Integer> findHorizontalSeam(float[] energies, int width, int height, int stride) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        return seamHelper((row, col) -> energies[row * stride + col], height, width);
+    }
+
+    private List<Integer> seamHelper(GridShortestPathFinder.Weights energies, int numRows, int numCols) {
+        if (!useGraph)
         {
-            for (int j = 0; j < energies[0].length; j++)
+            int[] path = gridFinder.findShortestPath(energies, numRows, numCols);
+            List<Integer> seam = new ArrayList<>(path.length);
+            for (int row : path)
             {
-                transposed[j][i] = energies[i][j];
+                seam.add(row);
             }
+            return seam;
         }
-        return seamHelper(transposed);
-    }
-
-    private List<Integer> seamHelper(double[][] energies) {
-        MyGraph G = new MyGraph(energies);
+        MyGraph G = new MyGraph(energies, numRows, numCols);
         MyVertex dummyStart = new MyVertex(-1, -1);
-        MyVertex dummyEnd = new MyVertex(-1, energies[0].length - 1);
+        MyVertex dummyEnd = new MyVertex(-1, numCols - 1);
         List<MyVertex> spt = pathFinder.findShortestPath(G, dummyStart, dummyEnd).vertices();
         spt.remove(0);
         //spt.remove(spt.size() - 1);
@@ -152,6 +197,6 @@ public class DijkstraSeamFinder implements SeamFinder {
     // x for horizontal, y for vertical
     @Override
     public List<Integer> findVerticalSeam(double[][] energies) {
-        return seamHelper(energies);
+        return seamHelper((row, col) -> energies[row][col], energies.length, energies[0].length); // energies[y][x]
     }
 }
@@ -0,0 +1,225 @@
+package seamcarving;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Computes dual-gradient energies from packed RGB pixels (0xRRGGBB, alpha
+ * ignored) in a flat row-major buffer, with pixel (x, y) at
+ * {@code y * stride + x}. The energies are kept in a buffer laid out the same
+ * way, which can be passed straight to a {@link FlatSeamFinder} or to an
+ * {@link IncrementalSeamCarver}.
+ *
+ * The energy of a pixel is sqrt(dx + dy), where dx is the sum over the red,
+ * green and blue channels of the squared difference of the pixels left and
+ * right of it, and dy the same for the pixels above and below it. On the
+ * edges, where a neighbor is missing, the difference is taken one-sided from
+ * the pixel and the two next to it (-3 f(0) + 4 f(1) - f(2)).
+ *
+ * The whole image is computed in parallel row bands. After a seam is removed,
+ * only the pixels next to it are recomputed.
+ */
+public class DualGradientEnergy implements IncrementalSeamCarver.EnergyRefresher {
+    // Most rows that a parallel task computes on its own: bands are halved
+    // while larger, so each holds between half this and this many
+    static final int MAX_BAND_ROWS = 16;
+
+    private final int[] pixels;
+    private final double[] energies;
+    private final int stride;
+    private final ForkJoinPool pool;    // null to compute serially
+    private int width;
+    private int height;
+
+    /**
+     * Computes the energies of the given pixels serially.
+     */
+    public DualGradientEnergy(int[] pixels, int width, int height, int stride) {
+        this(pixels, width, height, stride, null);
+    }
+
+    /**
+     * Computes the energies of the given pixels in row bands on the given
+     * pool. The pixel buffer is used as it is, and seams are removed from it
+     * in place.
+     */
+    public DualGradientEnergy(int[] pixels, int width, int height, int stride, ForkJoinPool pool) {
+        FlatSeamFinder.checkBuffer(pixels.length, width, height, stride);
+        this.pixels = pixels;
+        this.energies = new double[pixels.length];
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.pool = pool;
+        if (pool != null && height >= 2 * MAX_BAND_ROWS)
+        {
+            pool.invoke(new Band(this::computeRows, 0, height, MAX_BAND_ROWS));
+        }
+        else
+        {
+            computeRows(0, height);
+        }
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int stride() {
+        return stride;
+    }
+
+    public int[] pixels() {
+        return pixels;
+    }
+
+    /** Returns the buffer of energies (pixel (x, y) at y * stride() + x). */
+    public double[] energies() {
+        return energies;
+    }
+
+    /**
+     * Removes a vertical seam (one x for every y) from the pixels and the
+     * energies, and recomputes the energies of the pixels next to it.
+     */
+    public void removeVerticalSeam(int[] seam) {
+        checkSeam(seam, height, width);
+        for (int y = 0; y < height; y++)
+        {
+            int start = y * stride + seam[y];
+            System.arraycopy(pixels, start + 1, pixels, start, width - 1 - seam[y]);
+            System.arraycopy(energies, start + 1, energies, start, width - 1 - seam[y]);
+        }
+        width--;
+        updateVertical(energies, seam);
+    }
+
+    /**
+     * Removes a horizontal seam (one y for every x) from the pixels and the
+     * energies, and recomputes the energies of the pixels next to it.
+     */
+    public void removeHorizontalSeam(int[] seam) {
+        checkSeam(seam, width, height);
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = seam[x]; y < height - 1; y++)
+            {
+                pixels[y * stride + x] = pixels[(y + 1) * stride + x];
+                energies[y * stride + x] = energies[(y + 1) * stride + x];
+            }
+        }
+        height--;
+        for (int x = 0; x < width; x++)
+        {
+            int from = Math.max(seam[x] - IncrementalSeamCarver.REFRESH_RADIUS, 0);
+            int to = Math.min(seam[x] + IncrementalSeamCarver.REFRESH_RADIUS - 1, height - 1);
+            for (int y = from; y <= to; y++)
+            {
+                energies[y * stride + x] = energy(x, y);
+            }
+        }
+    }
+
+    /**
+     * Removes the seam from the pixels when an IncrementalSeamCarver built on
+     * {@link #energies()} has removed it from the energies, and recomputes the
+     * energies next to it.
+     */
+    @Override
+    public void refresh(double[] energies, int width, int height, int stride, int[] seam) {
+        if (width != this.width - 1 || height != this.height || stride != this.stride)
+        {
+            throw new IllegalArgumentException("Energies do not match the pixels");
+        }
+        checkSeam(seam, height, this.width);
+        for (int y = 0; y < height; y++)
+        {
+            int start = y * stride + seam[y];
+            System.arraycopy(pixels, start + 1, pixels, start, width - seam[y]);
+        }
+        this.width = width;
+        updateVertical(energies, seam);
+    }
+
+    /** Returns the energy of pixel (x, y), computed from the pixels. */
+    public double energy(int x, int y) {
+        int index = y * stride + x;
+        return Math.sqrt(gradient(index, x, width, 1) + gradient(index, y, height, stride));
+    }
+
+    // recomputes the pixels of each row that are within REFRESH_RADIUS of the removed seam
+    private void updateVertical(double[] energies, int[] seam) {
+        for (int y = 0; y < height; y++)
+        {
+            int from = Math.max(seam[y] - IncrementalSeamCarver.REFRESH_RADIUS, 0);
+            int to = Math.min(seam[y] + IncrementalSeamCarver.REFRESH_RADIUS - 1, width - 1);
+            for (int x = from; x <= to; x++)
+            {
+                energies[y * stride + x] = energy(x, y);
+            }
+        }
+    }
+
+    private void computeRows(int from, int to) {
+        for (int y = from; y < to; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                energies[y * stride + x] = energy(x, y);
+            }
+        }
+    }
+
+    // squared gradient summed over the channels at the given index along one
+    // direction, where the pixel is at position i of a line of the given
+    // length and step is the distance between neighbors in the buffer
+    private double gradient(int index, int i, int length, int step) {
+        if (length == 1)
+        {
+            return 0;
+        }
+        else if (i > 0 && i < length - 1)
+        {
+            return squaredDifference(pixels[index - step], pixels[index + step]);
+        }
+        else if (length == 2)
+        {
+            return squaredDifference(pixels[index], pixels[index + (i == 0 ? step : -step)]);
+        }
+        int toward = i == 0 ? step : -step;   // toward the inside of the line
+        int p = pixels[index];
+        int q = pixels[index + toward];
+        int r = pixels[index + 2 * toward];
+        double sum = 0;
+        for (int shift = 0; shift <= 16; shift += 8)
+        {
+            int d = -3 * ((p >> shift) & 0xFF) + 4 * ((q >> shift) & 0xFF) - ((r >> shift) & 0xFF);
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private static double squaredDifference(int p, int q) {
+        int r = ((p >> 16) & 0xFF) - ((q >> 16) & 0xFF);
+        int g = ((p >> 8) & 0xFF) - ((q >> 8) & 0xFF);
+        int b = (p & 0xFF) - (q & 0xFF);
+        return r * r + g * g + b * b;
+    }
+
+    private static void checkSeam(int[] seam, int length, int limit) {
+        if (seam.length != length)
+        {
+            throw new IllegalArgumentException("Seam of length " + seam.length + " for " + length + " lines");
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (seam[i] < 0 || seam[i] >= limit || (i > 0 && Math.abs(seam[i] - seam[i - 1]) > 1))
+            {
+                throw new IllegalArgumentException("Invalid seam at " + i + ": " + seam[i]);
+            }
+        }
+    }
+}
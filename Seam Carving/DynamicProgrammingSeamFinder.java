@@ -4,8 +4,38 @@ package seamcarving;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
-public class DynamicProgrammingSeamFinder implements SeamFinder {
+public class DynamicProgrammingSeamFinder implements FlatSeamFinder {
+    // Most cells of one step that a parallel task fills on its own
+    static final int MAX_BAND_SIZE = 1024;
+
+    private final ForkJoinPool pool;    // null to run serially
+    // buffers of the flat dynamic program, kept and grown between calls
+    private double[] line;
+    private double[] previous;
+    private double[] current;
+    private byte[] moves;
+
+    public DynamicProgrammingSeamFinder() {
+        this(null);
+    }
+
+    /**
+     * Creates a finder that fills every step of the dynamic program in bands
+     * on the given pool, waiting for all bands before starting the next step.
+     * The cells of a step only depend on the step before, so the seams are
+     * exactly those of the serial finder. The flat seams reuse their line and
+     * direction buffers from one call to the next, so a finder must not be
+     * shared between threads.
+     */
+    public DynamicProgrammingSeamFinder(ForkJoinPool pool) {
+        this.pool = pool;
+        this.line = new double[0];
+        this.previous = new double[0];
+        this.current = new double[0];
+        this.moves = new byte[0];
+    }
 
     @Override
     public List<Integer> findVerticalSeam(double[][] energies) {
@@ -20,31 +50,18 @@ public class DynamicProgrammingSeamFinder implements SeamFinder {
             minTotalEnergy[i][0] = energies[i][0];
         }
 
+        boolean parallel = pool != null && numRows >= 2 * MAX_BAND_SIZE;
         for (int j = 1; j < numCols; j++)
         {
-            for (int i = 0; i < numRows; i++)
+            if (parallel)
             {
-                double minEnergy = minTotalEnergy[i][j - 1];
-                int minIndex = i;
-
-                //comparing left-up neighbor
-                if (i > 0 && minTotalEnergy[i - 1][j - 1] < minEnergy)
-                {
-                    minEnergy = minTotalEnergy[i - 1][j - 1];
-                    minIndex = i - 1;
-                }
-                //comparing left-down neighbor
-                if (i < numRows - 1 && minTotalEnergy[i + 1][j - 1] < minEnergy)
-                {
-                    minEnergy = minTotalEnergy[i + 1][j - 1];
-                    minIndex = i + 1;
-                }
-
-                //adds the one with the min energy
-                minTotalEnergy[i][j] = minEnergy + energies[i][j];
-
-                //adds same one to the path
-                spt[i][j] = minIndex;
+                int step = j;
+                pool.invoke(new Band((from, to) -> fillCells(energies, minTotalEnergy, spt, step, from, to),
+                    0, numRows, MAX_BAND_SIZE));
+            }
+            else
+            {
+                fillCells(energies, minTotalEnergy, spt, j, 0, numRows);
             }
         }
 
@@ -69,21 +86,229 @@ public class DynamicProgrammingSeamFinder implements SeamFinder {
         return result;
     }
 
+    // fills the cells from..to-1 of step j from the cells of step j - 1
+    private static void fillCells(double[][] energies, double[][] minTotalEnergy, int[][] spt,
+                                  int j, int from, int to) {
+        int numRows = energies.length;
+        for (int i = from; i < to; i++)
+        {
+            double minEnergy = minTotalEnergy[i][j - 1];
+            int minIndex = i;
+
+            //comparing left-up neighbor
+            if (i > 0 && minTotalEnergy[i - 1][j - 1] < minEnergy)
+            {
+                minEnergy = minTotalEnergy[i - 1][j - 1];
+                minIndex = i - 1;
+            }
+            //comparing left-down neighbor
+            if (i < numRows - 1 && minTotalEnergy[i + 1][j - 1] < minEnergy)
+            {
+                minEnergy = minTotalEnergy[i + 1][j - 1];
+                minIndex = i + 1;
+            }
+
+            //adds the one with the min energy
+            minTotalEnergy[i][j] = minEnergy + energies[i][j];
+
+            //adds same one to the path
+            spt[i][j] = minIndex;
+        }
+    }
+
     @Override
     public List<Integer> findHorizontalSeam(double[][] energies) {
-        // transpose the energy matrix to reuse the findVerticalSeam method
-        int numCols = energies.length;
-        int numRows = energies[0].length;
-        double[][] transposed = new double[numRows][numCols];
+        // each energies[x] is a whole column, which is one line of a horizontal seam
+        return findFlatSeam(new Lines(energies));
+    }
+
+    @Override
+    public List<Integer> findVerticalSeam(double[] energies, int width, int height, int stride) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        return findFlatSeam(new Lines(energies, null, width, height, stride, false));
+    }
+
+    @Override
+    public List<Integer> findHorizontalSeam(double[] energies, int width, int height, int stride) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        return findFlatSeam(new Lines(energies, null, width, height, stride, true));
+    }
+
+    @Override
+    public List<Integer> findVerticalSeam(float[] energies, int width, int height, int stride) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        return findFlatSeam(new Lines(null, energies, width, height, stride, false));
+    }
+
+    @Override
+    public List<Integer> findHorizontalSeam(float[] energies, int width, int height, int stride) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        return findFlatSeam(new Lines(null, energies, width, height, stride, true));
+    }
+
+    // the dynamic program over a flat buffer, one line (a row for vertical
+    // seams, a column for horizontal ones) per step. Only the costs of the
+    // last two lines are kept, with a byte per cell saying which way the
+    // cheapest path goes back. Compares in the same order as findVerticalSeam,
+    // so it finds the same seams.
+    private List<Integer> findFlatSeam(Lines lines) {
+        int steps = lines.steps();
+        int length = lines.length();
+        ensureCapacity(steps, length);
+        double[] line = this.line;
+        double[] previous = this.previous;
+        double[] current = this.current;
+        byte[] moves = this.moves;
+
+        lines.read(0, previous);
+        boolean parallel = pool != null && length >= 2 * MAX_BAND_SIZE;
+        for (int k = 1; k < steps; k++)
+        {
+            lines.read(k, line);
+            int offset = k * length;
+            double[] last = previous;
+            double[] next = current;
+            if (parallel)
+            {
+                pool.invoke(new Band((from, to) -> fillLine(line, last, next, moves, length, offset, from, to),
+                    0, length, MAX_BAND_SIZE));
+            }
+            else
+            {
+                fillLine(line, last, next, moves, length, offset, 0, length);
+            }
+            previous = next;
+            current = last;
+        }
 
-        for (int i = 0; i < numCols; i++)
+        int minEnergyIndex = 0;
+        for (int i = 1; i < length; i++)
         {
-            for (int j = 0; j < numRows; j++)
+            if (previous[i] < previous[minEnergyIndex])
             {
-                transposed[j][i] = energies[i][j];
+                minEnergyIndex = i;
             }
         }
 
-        return findVerticalSeam(transposed);
+        List<Integer> result = new ArrayList<>(steps);
+        for (int k = steps - 1; k >= 0; k--)
+        {
+            result.add(minEnergyIndex);
+            minEnergyIndex += moves[k * length + minEnergyIndex];
+        }
+
+        Collections.reverse(result);
+        return result;
+    }
+
+    private void ensureCapacity(int steps, int length) {
+        if (line.length < length)
+        {
+            line = new double[length];
+            previous = new double[length];
+            current = new double[length];
+        }
+        if (moves.length < steps * length)
+        {
+            moves = new byte[steps * length];
+        }
+    }
+
+    // fills the cells from..to-1 of one line of the given length from the
+    // costs of the line before
+    private static void fillLine(double[] line, double[] previous, double[] current, byte[] moves,
+                                 int length, int offset, int from, int to) {
+        for (int i = from; i < to; i++)
+        {
+            double minEnergy = previous[i];
+            int move = 0;
+            if (i > 0 && previous[i - 1] < minEnergy)
+            {
+                minEnergy = previous[i - 1];
+                move = -1;
+            }
+            if (i < length - 1 && previous[i + 1] < minEnergy)
+            {
+                minEnergy = previous[i + 1];
+                move = 1;
+            }
+            current[i] = minEnergy + line[i];
+            moves[offset + i] = (byte) move;
+        }
+    }
+
+    // the lines of a flat double or float buffer in the order the dynamic
+    // program visits them: rows for vertical seams, columns for horizontal
+    // ones. The columns of a jagged [x][y] array are read as they are.
+    private static class Lines {
+        private final double[][] columns;
+        private final double[] doubles;
+        private final float[] floats;
+        private final int width;
+        private final int height;
+        private final int stride;
+        private final boolean horizontal;
+
+        Lines(double[][] columns) {
+            this.columns = columns;
+            this.doubles = null;
+            this.floats = null;
+            this.width = columns.length;
+            this.height = columns[0].length;
+            this.stride = 0;
+            this.horizontal = true;
+        }
+
+        Lines(double[] doubles, float[] floats, int width, int height, int stride, boolean horizontal) {
+            this.columns = null;
+            this.doubles = doubles;
+            this.floats = floats;
+            this.width = width;
+            this.height = height;
+            this.stride = stride;
+            this.horizontal = horizontal;
+        }
+
+        int steps() {
+            return horizontal ? width : height;
+        }
+
+        int length() {
+            return horizontal ? height : width;
+        }
+
+        // copies the energies of line k into the given array
+        void read(int k, double[] line) {
+            if (columns != null)
+            {
+                System.arraycopy(columns[k], 0, line, 0, height);
+            }
+            else if (!horizontal && doubles != null)
+            {
+                System.arraycopy(doubles, k * stride, line, 0, width);
+            }
+            else if (!horizontal)
+            {
+                int start = k * stride;
+                for (int x = 0; x < width; x++)
+                {
+                    line[x] = floats[start + x];
+                }
+            }
+            else if (doubles != null)
+            {
+                for (int y = 0; y < height; y++)
+                {
+                    line[y] = doubles[y * stride + k];
+                }
+            }
+            else
+            {
+                for (int y = 0; y < height; y++)
+                {
+                    line[y] = floats[y * stride + k];
+                }
+            }
+        }
     }
 }
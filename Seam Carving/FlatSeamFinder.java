@@ -0,0 +1,33 @@
+package seamcarving;
+
+import java.util.List;
+
+/**
+ * A {@link SeamFinder} that also takes energies in flat row-major buffers, with
+ * the energy of pixel (x, y) at {@code y * stride + x}. Seams in both directions
+ * are found on the buffer as it is, without transposing it, and {@code float}
+ * energies take half the memory (and memory bandwidth) of {@code double} ones.
+ *
+ * As with {@link SeamFinder}, a vertical seam holds one x for every y and a
+ * horizontal seam one y for every x.
+ */
+public interface FlatSeamFinder extends SeamFinder {
+    List<Integer> findVerticalSeam(double[] energies, int width, int height, int stride);
+
+    List<Integer> findHorizontalSeam(double[] energies, int width, int height, int stride);
+
+    List<Integer> findVerticalSeam(float[] energies, int width, int height, int stride);
+
+    List<Integer> findHorizontalSeam(float[] energies, int width, int height, int stride);
+
+    /**
+     * Throws an IllegalArgumentException unless a buffer of the given length
+     * holds an image of the given size with the given stride.
+     */
+    static void checkBuffer(int length, int width, int height, int stride) {
+        if (width < 1 || height < 1 || stride < width || length < (long) (height - 1) * stride + width) {
+            throw new IllegalArgumentException("Illegal energy buffer: " + width + "x" + height
+                + " with stride " + stride + " in " + length);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package graphs.shortestpaths;
+
+import java.util.Arrays;
+
+/**
+ * Computes shortest paths using Dijkstra's algorithm on an implicit grid graph:
+ * a path starts at any cell of column 0, steps from (row, col) to one of the
+ * cells (row - 1, col + 1), (row, col + 1) and (row + 1, col + 1), and ends at
+ * any cell of the last column. Entering a cell costs its weight.
+ *
+ * Vertices are {@code int} ids (row * numCols + col) and neighbors are computed
+ * from them, so no vertex, edge or map objects are created. Distances, parents
+ * and the heap are primitive arrays that are kept and reused by later calls,
+ * which makes a finder unsafe to share between threads.
+ */
+public class GridShortestPathFinder {
+    /**
+     * The weight of entering each cell of the grid.
+     */
+    public interface Weights {
+        double weight(int row, int col);
+    }
+
+    private double[] distTo;
+    private int[] edgeTo;       // id of the previous cell on the path, -1 in column 0
+    private int[] heap;         // ids, a binary min-heap on distTo
+    private int[] heapIndex;    // position of each id in heap, or NOT_IN_HEAP / SETTLED
+    private int size;
+
+    private static final int NOT_IN_HEAP = -1;
+    private static final int SETTLED = -2;
+
+    public GridShortestPathFinder() {
+        distTo = new double[0];
+        edgeTo = new int[0];
+        heap = new int[0];
+        heapIndex = new int[0];
+    }
+
+    /**
+     * Returns the row of the shortest path in every column of a grid with the
+     * given size, which must be at least 1 x 1. Weights must not be negative.
+     */
+    public int[] findShortestPath(Weights weights, int numRows, int numCols) {
+        if (numRows < 1 || numCols < 1)
+        {
+            throw new IllegalArgumentException("Illegal grid size: " + numRows + "x" + numCols);
+        }
+        int n = numRows * numCols;
+        ensureCapacity(n);
+        Arrays.fill(distTo, 0, n, Double.POSITIVE_INFINITY);
+        Arrays.fill(heapIndex, 0, n, NOT_IN_HEAP);
+        size = 0;
+
+        for (int row = 0; row < numRows; row++)
+        {
+            int id = row * numCols;
+            edgeTo[id] = -1;
+            relax(id, weights.weight(row, 0));
+        }
+
+        int end = -1;
+        while (size > 0)
+        {
+            int current = removeMin();
+            int row = current / numCols;
+            int col = current % numCols;
+            if (col == numCols - 1)
+            {
+                end = current;
+                break;
+            }
+            double dist = distTo[current];
+            for (int nextRow = Math.max(row - 1, 0); nextRow <= Math.min(row + 1, numRows - 1); nextRow++)
+            {
+                int next = nextRow * numCols + col + 1;
+                if (heapIndex[next] != SETTLED)
+                {
+                    double newDist = dist + weights.weight(nextRow, col + 1);
+                    if (newDist < distTo[next])
+                    {
+                        edgeTo[next] = current;
+                        relax(next, newDist);
+                    }
+                }
+            }
+        }
+
+        int[] path = new int[numCols];
+        for (int id = end; id != -1; id = edgeTo[id])
+        {
+            path[id % numCols] = id / numCols;
+        }
+        return path;
+    }
+
+    // grows the arrays to hold at least n vertices
+    private void ensureCapacity(int n) {
+        if (distTo.length < n)
+        {
+            distTo = new double[n];
+            edgeTo = new int[n];
+            heap = new int[n];
+            heapIndex = new int[n];
+        }
+    }
+
+    // lowers the distance of the vertex, adding it to the heap if it is not there
+    private void relax(int id, double dist) {
+        distTo[id] = dist;
+        if (heapIndex[id] == NOT_IN_HEAP)
+        {
+            heap[size] = id;
+            heapIndex[id] = size;
+            size++;
+        }
+        percolateUp(heapIndex[id]);
+    }
+
+    private int removeMin() {
+        int min = heap[0];
+        size--;
+        if (size > 0)
+        {
+            heap[0] = heap[size];
+            heapIndex[heap[0]] = 0;
+            percolateDown(0);
+        }
+        heapIndex[min] = SETTLED;
+        return min;
+    }
+
+    private void percolateUp(int index) {
+        int id = heap[index];
+        double dist = distTo[id];
+        while (index > 0)
+        {
+            int parent = (index - 1) / 2;
+            if (distTo[heap[parent]] <= dist)
+            {
+                break;
+            }
+            heap[index] = heap[parent];
+            heapIndex[heap[index]] = index;
+            index = parent;
+        }
+        heap[index] = id;
+        heapIndex[id] = index;
+    }
+
+    private void percolateDown(int index) {
+        int id = heap[index];
+        double dist = distTo[id];
+        while (2 * index + 1 < size)
+        {
+            int child = 2 * index + 1;
+            if (child + 1 < size && distTo[heap[child + 1]] < distTo[heap[child]])
+            {
+                child++;
+            }
+            if (dist <= distTo[heap[child]])
+            {
+                break;
+            }
+            heap[index] = heap[child];
+            heapIndex[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = id;
+        heapIndex[id] = index;
+    }
+}
@@ -0,0 +1,251 @@
+package seamcarving;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes many vertical seams in a row from one energy map, keeping the
+ * energies, the cumulative costs and the backpointers of the dynamic program
+ * in flat row-major buffers (pixel (x, y) at {@code y * stride + x}).
+ *
+ * After a seam is removed, only the band of cells whose cost can have changed
+ * is recomputed: the cells next to the seam, plus the cells below any cell
+ * whose cost actually changed. The band usually stays a few pixels wide, so
+ * removing k seams costs far less than k full passes of
+ * {@link DynamicProgrammingSeamFinder}, and gives the same seams.
+ */
+public class IncrementalSeamCarver {
+    /**
+     * Recomputes energies after a seam is removed, for energy functions that
+     * depend on neighboring pixels.
+     */
+    public interface EnergyRefresher {
+        /**
+         * Called after the seam has been removed from the energy buffer. May
+         * only change the energies of the pixels at x in
+         * [seam[y] - REFRESH_RADIUS, seam[y] + REFRESH_RADIUS - 1] of each row,
+         * which are the pixels whose horizontal or vertical neighbors changed.
+         */
+        void refresh(double[] energies, int width, int height, int stride, int[] seam);
+    }
+
+    /** How far from the removed seam an EnergyRefresher may change energies. */
+    public static final int REFRESH_RADIUS = 2;
+
+    private final int height;
+    private final int stride;
+    private int width;
+    private final double[] energies;
+    private final double[] costs;
+    private final byte[] moves;     // -1, 0 or 1: x of the cell above on the cheapest path, relative
+    private EnergyRefresher refresher;
+
+    /**
+     * Creates a carver for the given energies, indexed [x][y] like the
+     * arguments of {@link SeamFinder#findVerticalSeam}.
+     */
+    public IncrementalSeamCarver(double[][] energies) {
+        this(flatten(energies), energies.length, energies[0].length, energies.length);
+    }
+
+    /**
+     * Creates a carver working directly on the given row-major buffer, which
+     * it modifies as seams are removed.
+     */
+    public IncrementalSeamCarver(double[] energies, int width, int height, int stride) {
+        FlatSeamFinder.checkBuffer(energies.length, width, height, stride);
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.energies = energies;
+        this.costs = new double[energies.length];
+        this.moves = new byte[energies.length];
+        computeCosts();
+    }
+
+    public void setEnergyRefresher(EnergyRefresher refresher) {
+        this.refresher = refresher;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int stride() {
+        return stride;
+    }
+
+    /** Returns the buffer of current energies (pixel (x, y) at y * stride() + x). */
+    public double[] energies() {
+        return energies;
+    }
+
+    /** Returns the cheapest vertical seam of the current energies, one x per row. */
+    public List<Integer> findVerticalSeam() {
+        int[] seam = seam();
+        List<Integer> result = new ArrayList<>(height);
+        for (int x : seam)
+        {
+            result.add(x);
+        }
+        return result;
+    }
+
+    /** Removes the cheapest vertical seam and returns it, in the coordinates before removal. */
+    public List<Integer> removeVerticalSeam() {
+        List<Integer> result = findVerticalSeam();
+        int[] seam = new int[height];
+        for (int y = 0; y < height; y++)
+        {
+            seam[y] = result.get(y);
+        }
+        removeSeam(seam);
+        return result;
+    }
+
+    /**
+     * Removes the k cheapest vertical seams one after another and returns them,
+     * each in the coordinates of the image it was removed from.
+     */
+    public List<List<Integer>> removeVerticalSeams(int k) {
+        if (k < 0 || k >= width) {
+            throw new IllegalArgumentException("Cannot remove " + k + " seams from width " + width);
+        }
+        List<List<Integer>> seams = new ArrayList<>(k);
+        for (int i = 0; i < k; i++)
+        {
+            seams.add(removeVerticalSeam());
+        }
+        return seams;
+    }
+
+    // Fills the whole cost and backpointer buffers, as DynamicProgrammingSeamFinder does
+    private void computeCosts() {
+        System.arraycopy(energies, 0, costs, 0, width);
+        for (int y = 1; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                computeCell(x, y);
+            }
+        }
+    }
+
+    // Computes the cost and backpointer of one cell from the row above, with
+    // the same comparisons (and so the same ties) as DynamicProgrammingSeamFinder
+    private boolean computeCell(int x, int y) {
+        int index = y * stride + x;
+        int above = index - stride;
+        double minEnergy = costs[above];
+        int move = 0;
+        if (x > 0 && costs[above - 1] < minEnergy)
+        {
+            minEnergy = costs[above - 1];
+            move = -1;
+        }
+        if (x < width - 1 && costs[above + 1] < minEnergy)
+        {
+            minEnergy = costs[above + 1];
+            move = 1;
+        }
+        double cost = minEnergy + energies[index];
+        boolean changed = cost != costs[index];
+        costs[index] = cost;
+        moves[index] = (byte) move;
+        return changed;
+    }
+
+    // Follows the backpointers up from the cheapest cell of the last row
+    private int[] seam() {
+        int last = (height - 1) * stride;
+        int x = 0;
+        for (int i = 1; i < width; i++)
+        {
+            if (costs[last + i] < costs[last + x])
+            {
+                x = i;
+            }
+        }
+        int[] seam = new int[height];
+        for (int y = height - 1; y >= 0; y--)
+        {
+            seam[y] = x;
+            x += moves[y * stride + x];
+        }
+        return seam;
+    }
+
+    // Shifts every row left over the seam and then recomputes each row over
+    // the cells next to the seam (where energies may have been refreshed and
+    // where the cells above a cell are no longer the same pixels) widened by
+    // one cell either side of the cells whose cost changed in the row above
+    private void removeSeam(int[] seam) {
+        for (int y = 0; y < height; y++)
+        {
+            int start = y * stride + seam[y];
+            int count = width - 1 - seam[y];
+            System.arraycopy(energies, start + 1, energies, start, count);
+            System.arraycopy(costs, start + 1, costs, start, count);
+            System.arraycopy(moves, start + 1, moves, start, count);
+        }
+        width--;
+        if (refresher != null)
+        {
+            refresher.refresh(energies, width, height, stride, seam);
+        }
+
+        int changedFrom = 0;
+        int changedTo = -1;
+        for (int y = 0; y < height; y++)
+        {
+            int from = seam[y] - REFRESH_RADIUS - 1;
+            int to = seam[y] + REFRESH_RADIUS;
+            if (changedFrom <= changedTo)
+            {
+                from = Math.min(from, changedFrom - 1);
+                to = Math.max(to, changedTo + 1);
+            }
+            from = Math.max(from, 0);
+            to = Math.min(to, width - 1);
+            changedFrom = width;
+            changedTo = -1;
+            for (int x = from; x <= to; x++)
+            {
+                boolean changed;
+                if (y == 0)
+                {
+                    changed = costs[x] != energies[x];
+                    costs[x] = energies[x];
+                }
+                else
+                {
+                    changed = computeCell(x, y);
+                }
+                if (changed)
+                {
+                    changedFrom = Math.min(changedFrom, x);
+                    changedTo = x;
+                }
+            }
+        }
+    }
+
+    // Copies energies indexed [x][y] into a row-major buffer with stride width
+    private static double[] flatten(double[][] energies) {
+        int width = energies.length;
+        int height = energies[0].length;
+        double[] flat = new double[width * height];
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                flat[y * width + x] = energies[x][y];
+            }
+        }
+        return flat;
+    }
+}
@@ -0,0 +1,293 @@
+package seamcarving;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds seams in energy maps too large for the heap. The energies are read
+ * from a file of width * height doubles or floats in row-major order (pixel
+ * (x, y) at index y * width + x), which is memory-mapped a window at a time.
+ *
+ * The dynamic program is the one of {@link DynamicProgrammingSeamFinder},
+ * with the same ties, so it finds the same seams. Only the costs of the last
+ * two lines are kept; the way back from every cell is written as a 2-bit
+ * direction to a memory-mapped scratch file, and the seam is traced back
+ * through that file. Vertical seams stream the energies a row at a time.
+ * Horizontal seams step through columns, so the energies are read in strips
+ * of columns, a contiguous run of each row at a time.
+ */
+public class OutOfCoreSeamFinder {
+    // Most bytes of a file mapped at once
+    static final long WINDOW_SIZE = 1L << 28;
+    // Most energies held in memory for one strip of a horizontal seam
+    static final int STRIP_CELLS = 1 << 22;
+
+    // 2-bit directions, 4 to a byte: the index of the cell on the cheapest
+    // path in the line before is this one's, one less or one more
+    private static final int SAME = 0;
+    private static final int LESS = 1;
+    private static final int MORE = 2;
+
+    private final Path energyFile;
+    private final int width;
+    private final int height;
+    private final boolean floats;
+    private final ByteOrder order;
+    private final Path scratchDirectory;
+
+    /**
+     * Creates a finder for the given energy file of doubles (or floats if
+     * floats is true) in the given byte order, writing its scratch files to
+     * the default temporary directory.
+     */
+    public OutOfCoreSeamFinder(Path energyFile, int width, int height, boolean floats, ByteOrder order) {
+        this(energyFile, width, height, floats, order, null);
+    }
+
+    /**
+     * Creates a finder like the constructor above that writes its scratch
+     * files to the given directory, or to the default temporary directory if
+     * it is null.
+     */
+    public OutOfCoreSeamFinder(Path energyFile, int width, int height, boolean floats, ByteOrder order,
+                               Path scratchDirectory) {
+        if (width < 1 || height < 1)
+        {
+            throw new IllegalArgumentException("Illegal energy file size: " + width + "x" + height);
+        }
+        this.energyFile = energyFile;
+        this.width = width;
+        this.height = height;
+        this.floats = floats;
+        this.order = order;
+        this.scratchDirectory = scratchDirectory;
+    }
+
+    /** Returns the cheapest vertical seam, one x per row. */
+    public List<Integer> findVerticalSeam() throws IOException {
+        try (FileChannel channel = openEnergies(); Moves moves = new Moves(height, width))
+        {
+            Window energies = new Window(channel, MapMode.READ_ONLY, channel.size());
+            double[] line = new double[width];
+            double[] previous = new double[width];
+            double[] current = new double[width];
+
+            readRun(energies, 0, width, previous, 0);
+            for (int y = 1; y < height; y++)
+            {
+                readRun(energies, (long) y * width, width, line, 0);
+                fillLine(line, 0, previous, current, moves.line);
+                moves.write(y);
+                double[] last = previous;
+                previous = current;
+                current = last;
+            }
+            return traceBack(previous, moves);
+        }
+    }
+
+    /** Returns the cheapest horizontal seam, one y per column. */
+    public List<Integer> findHorizontalSeam() throws IOException {
+        try (FileChannel channel = openEnergies(); Moves moves = new Moves(width, height))
+        {
+            Window energies = new Window(channel, MapMode.READ_ONLY, channel.size());
+            int strip = Math.max(1, Math.min(width, STRIP_CELLS / height));
+            double[] cells = new double[strip * height];    // strip column c at c * height
+            double[] previous = new double[height];
+            double[] current = new double[height];
+
+            for (int from = 0; from < width; from += strip)
+            {
+                int columns = Math.min(strip, width - from);
+                double[] run = new double[columns];
+                for (int y = 0; y < height; y++)
+                {
+                    readRun(energies, (long) y * width + from, columns, run, 0);
+                    for (int c = 0; c < columns; c++)
+                    {
+                        cells[c * height + y] = run[c];
+                    }
+                }
+                for (int c = 0; c < columns; c++)
+                {
+                    int x = from + c;
+                    if (x == 0)
+                    {
+                        System.arraycopy(cells, 0, previous, 0, height);
+                        continue;
+                    }
+                    fillLine(cells, c * height, previous, current, moves.line);
+                    moves.write(x);
+                    double[] last = previous;
+                    previous = current;
+                    current = last;
+                }
+            }
+            return traceBack(previous, moves);
+        }
+    }
+
+    private FileChannel openEnergies() throws IOException {
+        FileChannel channel = FileChannel.open(energyFile, StandardOpenOption.READ);
+        long needed = (long) width * height * (floats ? Float.BYTES : Double.BYTES);
+        if (channel.size() < needed)
+        {
+            channel.close();
+            throw new IllegalArgumentException("Energy file of " + channel.size() + " bytes for "
+                + width + "x" + height + " energies");
+        }
+        return channel;
+    }
+
+    // copies count energies starting at the given index of the file into line
+    private void readRun(Window energies, long index, int count, double[] line, int offset) throws IOException {
+        int size = floats ? Float.BYTES : Double.BYTES;
+        MappedByteBuffer buffer = energies.map(index * size, count * size);
+        int start = energies.offset(index * size);
+        for (int i = 0; i < count; i++)
+        {
+            line[offset + i] = floats ? buffer.getFloat(start + i * size) : buffer.getDouble(start + i * size);
+        }
+    }
+
+    // fills the costs of one line from those of the line before, packing the
+    // directions into moves, with the comparisons of DynamicProgrammingSeamFinder
+    private static void fillLine(double[] energies, int offset, double[] previous, double[] current,
+                                 byte[] moves) {
+        int length = previous.length;
+        Arrays.fill(moves, (byte) 0);
+        for (int i = 0; i < length; i++)
+        {
+            double minEnergy = previous[i];
+            int move = SAME;
+            if (i > 0 && previous[i - 1] < minEnergy)
+            {
+                minEnergy = previous[i - 1];
+                move = LESS;
+            }
+            if (i < length - 1 && previous[i + 1] < minEnergy)
+            {
+                minEnergy = previous[i + 1];
+                move = MORE;
+            }
+            current[i] = minEnergy + energies[offset + i];
+            moves[i >> 2] |= (byte) (move << ((i & 3) * 2));
+        }
+    }
+
+    // follows the directions back from the cheapest cell of the last line
+    private static List<Integer> traceBack(double[] costs, Moves moves) throws IOException {
+        int index = 0;
+        for (int i = 1; i < costs.length; i++)
+        {
+            if (costs[i] < costs[index])
+            {
+                index = i;
+            }
+        }
+        List<Integer> seam = new ArrayList<>(moves.steps);
+        for (int k = moves.steps - 1; k >= 0; k--)
+        {
+            seam.add(index);
+            if (k > 0)
+            {
+                int move = moves.read(k, index);
+                if (move == LESS)
+                {
+                    index--;
+                }
+                else if (move == MORE)
+                {
+                    index++;
+                }
+            }
+        }
+        Collections.reverse(seam);
+        return seam;
+    }
+
+    // part of a file mapped around the bytes last asked for, moved when bytes
+    // outside it are needed. Half a window is kept on either side, so the
+    // file can be walked forward or backward.
+    private class Window {
+        private final FileChannel channel;
+        private final MapMode mode;
+        private final long size;
+        private MappedByteBuffer buffer;
+        private long start;
+        private long end;
+
+        Window(FileChannel channel, MapMode mode, long size) {
+            this.channel = channel;
+            this.mode = mode;
+            this.size = size;
+        }
+
+        // returns a buffer holding the given bytes, at offset(position)
+        MappedByteBuffer map(long position, int length) throws IOException {
+            if (buffer == null || position < start || position + length > end)
+            {
+                start = Math.max(0, position - WINDOW_SIZE / 2);
+                end = Math.min(size, Math.max(start + WINDOW_SIZE, position + length));
+                buffer = channel.map(mode, start, end - start);
+                buffer.order(order);
+            }
+            return buffer;
+        }
+
+        int offset(long position) {
+            return (int) (position - start);
+        }
+    }
+
+    // the directions of every line of the dynamic program, in a scratch file
+    // that is deleted when closed. Each line is padded to whole bytes.
+    private class Moves implements AutoCloseable {
+        private final int steps;
+        private final int bytesPerLine;
+        private final FileChannel channel;
+        private final Window window;
+        private final byte[] line;      // the packed directions of the line being filled
+
+        Moves(int steps, int length) throws IOException {
+            this.steps = steps;
+            this.bytesPerLine = (length + 3) / 4;
+            Path file = scratchDirectory == null
+                ? Files.createTempFile("seam", ".moves")
+                : Files.createTempFile(scratchDirectory, "seam", ".moves");
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+            long size = (long) steps * bytesPerLine;
+            this.window = new Window(channel, MapMode.READ_WRITE, size);
+            this.line = new byte[bytesPerLine];
+        }
+
+        // writes the packed directions of line k
+        void write(int k) throws IOException {
+            long position = (long) k * bytesPerLine;
+            window.map(position, bytesPerLine).put(window.offset(position), line);
+        }
+
+        // returns the direction of cell i of line k
+        int read(int k, int i) throws IOException {
+            long position = (long) k * bytesPerLine + (i >> 2);
+            int packed = window.map(position, 1).get(window.offset(position));
+            return (packed >> ((i & 3) * 2)) & 3;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package seamcarving;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Resizes an image to a smaller target width and height by removing seams.
+ * The image is decoded once into a packed RGB {@code int[]}, and each step
+ * finds a seam in the energies of a {@link DualGradientEnergy} with a
+ * {@link FlatSeamFinder}, then removes it from the pixels and energies in
+ * place, so those two buffers are allocated once per resize. A
+ * {@link DynamicProgrammingSeamFinder} also keeps its line and direction
+ * buffers from one seam to the next; a {@link BatchSeamFinder} allocates the
+ * costs of each batch afresh, and a {@link DijkstraSeamFinder} reuses its grid
+ * search arrays.
+ *
+ * Images are read and written with {@link ImageIO}, except for PPM files
+ * (.ppm, .pnm), which ImageIO does not support and are handled here.
+ */
+public class SeamCarvingPipeline {
+    /** The order in which vertical and horizontal seams are removed. */
+    public enum Order {
+        /** All vertical seams (reducing the width), then all horizontal ones. */
+        VERTICAL_FIRST,
+        /** All horizontal seams (reducing the height), then all vertical ones. */
+        HORIZONTAL_FIRST,
+        /** One of each in turn while both are needed, then the rest. */
+        ALTERNATE
+    }
+
+    private final FlatSeamFinder finder;
+    private final ForkJoinPool pool;    // null to compute energies serially
+    private final Order order;
+    private long[] seamNanos;
+    private int seamCount;
+    private final BatchSeamFinder batchFinder = new BatchSeamFinder();
+    private int batchSize = 1;
+
+    public SeamCarvingPipeline() {
+        this(new DynamicProgrammingSeamFinder(), null, Order.ALTERNATE);
+    }
+
+    /**
+     * Creates a pipeline finding seams with the given finder, computing the
+     * first energies on the given pool (or serially if it is null), and
+     * removing seams in the given order.
+     */
+    public SeamCarvingPipeline(FlatSeamFinder finder, ForkJoinPool pool, Order order) {
+        this.finder = finder;
+        this.pool = pool;
+        this.order = order;
+        this.seamNanos = new long[0];
+    }
+
+    /**
+     * Sets how many seams each step removes. Above 1, the seams of a step come
+     * from one pass of a {@link BatchSeamFinder}, which is faster but only
+     * approximates removing them one at a time.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1)
+        {
+            throw new IllegalArgumentException("Illegal batch size: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the image carved down to the given size, which must be at least
+     * 1 x 1 and no larger than the image.
+     */
+    public BufferedImage resize(BufferedImage image, int targetWidth, int targetHeight) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (targetWidth < 1 || targetHeight < 1 || targetWidth > width || targetHeight > height)
+        {
+            throw new IllegalArgumentException("Cannot carve " + width + "x" + height + " to "
+                + targetWidth + "x" + targetHeight);
+        }
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        DualGradientEnergy energy = new DualGradientEnergy(pixels, width, height, width, pool);
+
+        int vertical = width - targetWidth;
+        int horizontal = height - targetHeight;
+        seamNanos = new long[vertical + horizontal];
+        seamCount = 0;
+        boolean nextVertical = order != Order.HORIZONTAL_FIRST;
+        while (vertical > 0 || horizontal > 0)
+        {
+            boolean removeVertical;
+            if (vertical == 0 || horizontal == 0)
+            {
+                removeVertical = vertical > 0;
+            }
+            else
+            {
+                removeVertical = nextVertical;
+                if (order == Order.ALTERNATE)
+                {
+                    nextVertical = !nextVertical;
+                }
+            }
+
+            long start = System.nanoTime();
+            double[] energies = energy.energies();
+            int w = energy.width();
+            int h = energy.height();
+            int count = Math.min(batchSize, removeVertical ? vertical : horizontal);
+            List<List<Integer>> seams;
+            if (count > 1)
+            {
+                seams = removeVertical
+                    ? batchFinder.findVerticalSeams(energies, w, h, energy.stride(), count)
+                    : batchFinder.findHorizontalSeams(energies, w, h, energy.stride(), count);
+            }
+            else
+            {
+                seams = List.of(removeVertical
+                    ? finder.findVerticalSeam(energies, w, h, energy.stride())
+                    : finder.findHorizontalSeam(energies, w, h, energy.stride()));
+            }
+            // the last seam first, so the ones before it keep their coordinates
+            for (int i = seams.size() - 1; i >= 0; i--)
+            {
+                if (removeVertical)
+                {
+                    energy.removeVerticalSeam(toArray(seams.get(i)));
+                }
+                else
+                {
+                    energy.removeHorizontalSeam(toArray(seams.get(i)));
+                }
+            }
+            if (removeVertical)
+            {
+                vertical -= seams.size();
+            }
+            else
+            {
+                horizontal -= seams.size();
+            }
+            long nanos = (System.nanoTime() - start) / seams.size();
+            for (int i = 0; i < seams.size(); i++)
+            {
+                seamNanos[seamCount] = nanos;
+                seamCount++;
+            }
+        }
+
+        BufferedImage result = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        result.setRGB(0, 0, targetWidth, targetHeight, pixels, 0, energy.stride());
+        return result;
+    }
+
+    /**
+     * Returns the time in nanoseconds that finding and removing each seam of
+     * the last resize took, including the energy update, in the order the
+     * seams were removed. Seams removed in one batch share its time equally.
+     */
+    public long[] seamNanos() {
+        return Arrays.copyOf(seamNanos, seamCount);
+    }
+
+    private static int[] toArray(List<Integer> seam) {
+        int[] result = new int[seam.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = seam.get(i);
+        }
+        return result;
+    }
+
+    /** Reads a PPM file, or any image ImageIO can read. */
+    public static BufferedImage read(File file) throws IOException {
+        if (isPpm(file))
+        {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file)))
+            {
+                return readPpm(in);
+            }
+        }
+        BufferedImage image = ImageIO.read(file);
+        if (image == null)
+        {
+            throw new IOException("Unsupported image format: " + file);
+        }
+        return image;
+    }
+
+    /** Writes the image as PPM or in the ImageIO format named by the file extension. */
+    public static void write(BufferedImage image, File file) throws IOException {
+        if (isPpm(file))
+        {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file)))
+            {
+                writePpm(image, out);
+            }
+            return;
+        }
+        String name = file.getName();
+        String format = name.substring(name.lastIndexOf('.') + 1);
+        if (!ImageIO.write(image, format, file))
+        {
+            throw new IOException("Unsupported image format: " + format);
+        }
+    }
+
+    private static boolean isPpm(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        return name.endsWith(".ppm") || name.endsWith(".pnm");
+    }
+
+    /** Reads a binary (P6) or plain (P3) PPM image. */
+    public static BufferedImage readPpm(InputStream in) throws IOException {
+        String magic = token(in);
+        if (!magic.equals("P6") && !magic.equals("P3"))
+        {
+            throw new IOException("Not a PPM image: " + magic);
+        }
+        int width = Integer.parseInt(token(in));
+        int height = Integer.parseInt(token(in));
+        int maxValue = Integer.parseInt(token(in));
+        if (width < 1 || height < 1 || maxValue < 1 || maxValue > 65535)
+        {
+            throw new IOException("Bad PPM header: " + width + "x" + height + ", max " + maxValue);
+        }
+        boolean binary = magic.equals("P6");
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++)
+        {
+            int rgb = 0;
+            for (int channel = 0; channel < 3; channel++)
+            {
+                int value;
+                if (!binary)
+                {
+                    value = Integer.parseInt(token(in));
+                }
+                else if (maxValue < 256)
+                {
+                    value = readByte(in);
+                }
+                else
+                {
+                    value = (readByte(in) << 8) | readByte(in);
+                }
+                rgb = (rgb << 8) | (value * 255 + maxValue / 2) / maxValue;
+            }
+            pixels[i] = rgb;
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /** Writes the image as a binary (P6) PPM with 8 bits per channel. */
+    public static void writePpm(BufferedImage image, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+        int[] row = new int[width];
+        byte[] bytes = new byte[3 * width];
+        for (int y = 0; y < height; y++)
+        {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++)
+            {
+                bytes[3 * x] = (byte) (row[x] >> 16);
+                bytes[3 * x + 1] = (byte) (row[x] >> 8);
+                bytes[3 * x + 2] = (byte) row[x];
+            }
+            out.write(bytes);
+        }
+    }
+
+    // reads the next whitespace-separated token of a PPM header, skipping
+    // comments, and the single whitespace character after it
+    private static String token(InputStream in) throws IOException {
+        StringBuilder token = new StringBuilder();
+        int c = readByte(in);
+        while (Character.isWhitespace(c) || c == '#')
+        {
+            if (c == '#')
+            {
+                while (c != '\n' && c != '\r')
+                {
+                    c = readByte(in);
+                }
+            }
+            c = readByte(in);
+        }
+        while (c != -1 && !Character.isWhitespace(c))
+        {
+            token.append((char) c);
+            c = in.read();
+        }
+        return token.toString();
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1)
+        {
+            throw new EOFException("Truncated PPM image");
+        }
+        return b;
+    }
+
+    /**
+     * Usage: SeamCarvingPipeline input output width height
+     *        [vertical-first | horizontal-first | alternate] [dp | dijkstra] [threads] [batch size]
+     *
+     * Carves the input image to the given size, writes it to output and prints
+     * the time taken per seam.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4)
+        {
+            System.err.println("Usage: SeamCarvingPipeline input output width height "
+                + "[vertical-first | horizontal-first | alternate] [dp | dijkstra] [threads] [batch size]");
+            System.exit(1);
+        }
+        Order order = args.length > 4
+            ? Order.valueOf(args[4].toUpperCase(Locale.ROOT).replace('-', '_'))
+            : Order.ALTERNATE;
+        int threads = args.length > 6 ? Integer.parseInt(args[6]) : 1;
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        FlatSeamFinder finder;
+        if (args.length > 5 && args[5].equals("dijkstra"))
+        {
+            finder = new DijkstraSeamFinder();
+        }
+        else
+        {
+            finder = new DynamicProgrammingSeamFinder(pool);
+        }
+
+        BufferedImage image = read(new File(args[0]));
+        SeamCarvingPipeline pipeline = new SeamCarvingPipeline(finder, pool, order);
+        if (args.length > 7)
+        {
+            pipeline.setBatchSize(Integer.parseInt(args[7]));
+        }
+        long start = System.nanoTime();
+        BufferedImage result = pipeline.resize(image, Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        long total = System.nanoTime() - start;
+        write(result, new File(args[1]));
+
+        long[] nanos = pipeline.seamNanos();
+        long max = 0;
+        for (long n : nanos)
+        {
+            max = Math.max(max, n);
+        }
+        System.out.printf("%dx%d -> %dx%d: %d seams in %.1f ms (%.3f ms per seam, slowest %.3f ms)%n",
+            image.getWidth(), image.getHeight(), result.getWidth(), result.getHeight(), nanos.length,
+            total / 1e6, nanos.length == 0 ? 0 : total / 1e6 / nanos.length, max / 1e6);
+        if (pool != null)
+        {
+            pool.shutdown();
+        }
+    }
+}